@@ -33,11 +33,11 @@ public class B01_LoggingPostProcessors {
 
     static class Bean1 {
         public Bean1() {
-            System.out.println("Bean1.Bean1");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("Bean1", "Bean1");
         }
 
         public void init() {
-            System.out.println("Bean1.init");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("Bean1", "init");
         }
     }
 
@@ -48,14 +48,14 @@ public class B01_LoggingPostProcessors {
         @Override
         public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
             beforeInitializationCalled = true;
-            System.out.println("LoggingBeanProcessor.postProcessBeforeInitialization");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("LoggingBeanProcessor", "postProcessBeforeInitialization", beanName);
             return BeanPostProcessor.super.postProcessBeforeInitialization(bean, beanName);
         }
 
         @Override
         public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
             afterInitializationCalled = true;
-            System.out.println("LoggingBeanProcessor.postProcessAfterInitialization");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("LoggingBeanProcessor", "postProcessAfterInitialization", beanName);
             return BeanPostProcessor.super.postProcessAfterInitialization(bean, beanName);
         }
 
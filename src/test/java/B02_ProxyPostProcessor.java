@@ -38,7 +38,7 @@ public class B02_ProxyPostProcessor {
 
     static class Bean1 implements Interface1 {
         public Bean1() {
-            System.out.println("Bean1.Bean1");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("Bean1", "Bean1");
         }
 
         public String exampleCall(String in) {
@@ -49,7 +49,7 @@ public class B02_ProxyPostProcessor {
     static class ProxyBeanProcessor implements BeanPostProcessor {
         @Override
         public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
-            System.out.println("LoggingBeanProcessor.postProcessBeforeInitialization");
+            C18_AsyncLifecycleTracing.LifecycleTrace.trace("ProxyBeanProcessor", "postProcessAfterInitialization", beanName);
             return Proxy.newProxyInstance(bean.getClass().getClassLoader(), new Class[] { Interface1.class },
                     new LoggingProxy(bean));
         }
@@ -63,9 +63,9 @@ public class B02_ProxyPostProcessor {
 
             @Override
             public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                System.out.println("LoggingProxy.method before");
+                C18_AsyncLifecycleTracing.LifecycleTrace.trace("LoggingProxy", "before", method.getName());
                 Object ret = method.invoke(o, args);
-                System.out.println("LoggingProxy.method after");
+                C18_AsyncLifecycleTracing.LifecycleTrace.trace("LoggingProxy", "after", method.getName());
                 return ret;
             }
         }
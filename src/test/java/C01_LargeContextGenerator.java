@@ -0,0 +1,458 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.annotation.InitDestroyAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C01_LargeContextGenerator {
+    /**
+     * Generated context with every shape option switched on
+     * @see LargeContextGenerator#generate(ContextShape)
+     * @see DefaultListableBeanFactory#preInstantiateSingletons()
+     */
+    @Test
+    void generatedShape() {
+        ContextShape shape = new ContextShape()
+                .beanCount(200)
+                .dependsOnDepth(5)
+                .autowireFanOut(2)
+                .prototypeFraction(0.25)
+                .aliasChainLength(3)
+                .childFraction(0.3)
+                .initDestroyProcessor(true)
+                .autowiredProcessor(true);
+
+        DefaultListableBeanFactory bf = LargeContextGenerator.generate(shape);
+        bf.preInstantiateSingletons();
+
+        assertThat(bf.getBeanDefinitionCount()).isEqualTo(200 + LargeContextGenerator.LEAF_CLASSES.length + 1);
+        assertThat(bf.getAliases("node7")).hasSize(3);
+
+        Node2 node = (Node2) bf.getBean(LargeContextGenerator.aliasName(7, 3));
+        assertThat(bf.getDependenciesForBean("node7")).contains("node6");
+        assertThat(node.getLeaf0()).isNotNull();
+        assertThat(node.getLeaf1()).isNotNull();
+        assertThat(node.getAutowiredLeaf()).isNotNull();
+        assertThat(node.isInitCalled()).isTrue();
+    }
+
+    /**
+     * Registration, pre-instantiation, heap footprint and lookup latency at 1k/10k/100k beans.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void scalingBenchmark() {
+        for (int beanCount : new int[] { 1_000, 10_000, 100_000 }) {
+            ContextShape shape = new ContextShape()
+                    .beanCount(beanCount)
+                    .dependsOnDepth(4)
+                    .autowireFanOut(2)
+                    .prototypeFraction(0.1)
+                    .aliasChainLength(1)
+                    .childFraction(0.2)
+                    .initDestroyProcessor(true)
+                    .autowiredProcessor(true);
+
+            long heapBefore = Bench.usedHeap();
+            long start = System.nanoTime();
+            DefaultListableBeanFactory bf = LargeContextGenerator.generate(shape);
+            long registration = System.nanoTime() - start;
+            long heapRegistered = Bench.usedHeap();
+
+            bf.freezeConfiguration();
+            start = System.nanoTime();
+            bf.preInstantiateSingletons();
+            long preInstantiation = System.nanoTime() - start;
+            long heapInstantiated = Bench.usedHeap();
+
+            Random random = new Random(shape.getSeed());
+            String[] names = new String[1024];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = LargeContextGenerator.nodeName(random.nextInt(beanCount));
+            }
+            long lookup = Bench.measure(100_000, i -> bf.getBean(names[i & 1023]));
+
+            System.out.printf("%,d beans: registration %,d ms, pre-instantiation %,d ms, "
+                            + "definitions %,d KB, singletons %,d KB, getBean %,d ns/op%n",
+                    beanCount, registration / 1_000_000, preInstantiation / 1_000_000,
+                    (heapRegistered - heapBefore) / 1024, (heapInstantiated - heapRegistered) / 1024, lookup);
+
+            bf.destroySingletons();
+        }
+    }
+
+    /**
+     * Shape of a generated context. Fractions are applied with a seeded {@link Random},
+     * so the same shape always yields the same registry.
+     */
+    static class ContextShape {
+        private int beanCount = 1000;
+        private int dependsOnDepth;
+        private int autowireFanOut;
+        private double prototypeFraction;
+        private int aliasChainLength;
+        private double childFraction;
+        private boolean loggingProcessor;
+        private boolean proxyProcessor;
+        private boolean initDestroyProcessor;
+        private boolean autowiredProcessor;
+        private long seed = 42;
+
+        ContextShape beanCount(int beanCount) {
+            this.beanCount = beanCount;
+            return this;
+        }
+
+        /** Length of the {@code dependsOn} chains, 0 or 1 for none */
+        ContextShape dependsOnDepth(int dependsOnDepth) {
+            this.dependsOnDepth = dependsOnDepth;
+            return this;
+        }
+
+        /** Number of leaf beans each node receives through {@code AUTOWIRE_BY_TYPE} */
+        ContextShape autowireFanOut(int autowireFanOut) {
+            if (autowireFanOut < 0 || autowireFanOut >= LargeContextGenerator.NODE_CLASSES.length) {
+                throw new IllegalArgumentException("Fan-out must be between 0 and "
+                        + (LargeContextGenerator.NODE_CLASSES.length - 1));
+            }
+            this.autowireFanOut = autowireFanOut;
+            return this;
+        }
+
+        ContextShape prototypeFraction(double prototypeFraction) {
+            this.prototypeFraction = prototypeFraction;
+            return this;
+        }
+
+        /** Number of aliases per node, each aliasing the previous one */
+        ContextShape aliasChainLength(int aliasChainLength) {
+            this.aliasChainLength = aliasChainLength;
+            return this;
+        }
+
+        /** Fraction of nodes defined as children of an abstract template definition */
+        ContextShape childFraction(double childFraction) {
+            this.childFraction = childFraction;
+            return this;
+        }
+
+        /** @see B01_LoggingPostProcessors.LoggingBeanProcessor */
+        ContextShape loggingProcessor(boolean loggingProcessor) {
+            this.loggingProcessor = loggingProcessor;
+            return this;
+        }
+
+        /** @see B02_ProxyPostProcessor.ProxyBeanProcessor */
+        ContextShape proxyProcessor(boolean proxyProcessor) {
+            this.proxyProcessor = proxyProcessor;
+            return this;
+        }
+
+        /** @see B03_InitDestroyPostProcessor */
+        ContextShape initDestroyProcessor(boolean initDestroyProcessor) {
+            this.initDestroyProcessor = initDestroyProcessor;
+            return this;
+        }
+
+        /** @see B04_AutowiredPostProcessor */
+        ContextShape autowiredProcessor(boolean autowiredProcessor) {
+            this.autowiredProcessor = autowiredProcessor;
+            return this;
+        }
+
+        ContextShape seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        long getSeed() {
+            return seed;
+        }
+    }
+
+    /**
+     * Builds {@link DefaultListableBeanFactory} registries of arbitrary size out of {@link ContextShape}s.
+     * Nodes are named {@code node0..nodeN-1}, their aliases {@code nodeI-alias1..K}.
+     */
+    static class LargeContextGenerator {
+        static final String TEMPLATE_NAME = "nodeTemplate";
+
+        static final Class<?>[] LEAF_CLASSES = { Leaf0.class, Leaf1.class, Leaf2.class, Leaf3.class };
+
+        /** Indexed by fan-out: {@code Node2} has setters for two leaves */
+        static final Class<?>[] NODE_CLASSES = { Node0.class, Node1.class, Node2.class, Node3.class, Node4.class };
+
+        static String nodeName(int index) {
+            return "node" + index;
+        }
+
+        static String aliasName(int index, int depth) {
+            return "node" + index + "-alias" + depth;
+        }
+
+        static DefaultListableBeanFactory generate(ContextShape shape) {
+            DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+            addPostProcessors(bf, shape);
+            register(bf, shape);
+            return bf;
+        }
+
+        static void register(BeanDefinitionRegistry registry, ContextShape shape) {
+            definitions(shape).forEach(registry::registerBeanDefinition);
+            aliases(shape).forEach((alias, name) -> registry.registerAlias(name, alias));
+        }
+
+        /**
+         * Definitions in registration order: leaves, the abstract template, then the nodes
+         */
+        static Map<String, AbstractBeanDefinition> definitions(ContextShape shape) {
+            if (shape.proxyProcessor && shape.autowireFanOut > 0) {
+                throw new IllegalArgumentException("Proxy post-processor hides leaf types from autowiring by type, "
+                        + "use autowireFanOut(0) together with proxyProcessor(true)");
+            }
+            Map<String, AbstractBeanDefinition> definitions = new LinkedHashMap<>(shape.beanCount * 2);
+            Random random = new Random(shape.seed);
+            Class<?> nodeClass = NODE_CLASSES[shape.autowireFanOut];
+
+            if (!shape.proxyProcessor) {
+                for (int i = 0; i < LEAF_CLASSES.length; i++) {
+                    GenericBeanDefinition leaf = new GenericBeanDefinition();
+                    leaf.setBeanClass(LEAF_CLASSES[i]);
+                    definitions.put("leaf" + i, leaf);
+                }
+            }
+
+            GenericBeanDefinition template = new GenericBeanDefinition();
+            template.setBeanClass(nodeClass);
+            template.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+            template.setAbstract(true);
+            definitions.put(TEMPLATE_NAME, template);
+
+            for (int i = 0; i < shape.beanCount; i++) {
+                GenericBeanDefinition bd = new GenericBeanDefinition();
+                if (random.nextDouble() < shape.childFraction) {
+                    bd.setParentName(TEMPLATE_NAME);
+                } else {
+                    bd.setBeanClass(nodeClass);
+                }
+                // autowire mode is not inherited, AbstractBeanDefinition#overrideFrom always takes the child's
+                bd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+                if (random.nextDouble() < shape.prototypeFraction) {
+                    bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+                }
+                if (shape.dependsOnDepth > 1 && i % shape.dependsOnDepth != 0) {
+                    bd.setDependsOn(nodeName(i - 1));
+                }
+                definitions.put(nodeName(i), bd);
+            }
+            return definitions;
+        }
+
+        /**
+         * Aliases mapped to the name they alias, {@code nodeI-alias2 -> nodeI-alias1 -> nodeI}
+         */
+        static Map<String, String> aliases(ContextShape shape) {
+            Map<String, String> aliases = new LinkedHashMap<>(shape.beanCount * shape.aliasChainLength * 2);
+            for (int i = 0; i < shape.beanCount; i++) {
+                String name = nodeName(i);
+                for (int depth = 1; depth <= shape.aliasChainLength; depth++) {
+                    String alias = aliasName(i, depth);
+                    aliases.put(alias, name);
+                    name = alias;
+                }
+            }
+            return aliases;
+        }
+
+        static void addPostProcessors(DefaultListableBeanFactory bf, ContextShape shape) {
+            if (shape.loggingProcessor) {
+                bf.addBeanPostProcessor(new B01_LoggingPostProcessors.LoggingBeanProcessor());
+            }
+            if (shape.proxyProcessor) {
+                bf.addBeanPostProcessor(new B02_ProxyPostProcessor.ProxyBeanProcessor());
+            }
+            if (shape.initDestroyProcessor) {
+                InitDestroyAnnotationBeanPostProcessor processor = new InitDestroyAnnotationBeanPostProcessor();
+                processor.setInitAnnotationType(B03_InitDestroyPostProcessor.MyInit.class);
+                processor.setDestroyAnnotationType(B03_InitDestroyPostProcessor.MyDestroy.class);
+                bf.addBeanPostProcessor(processor);
+            }
+            if (shape.autowiredProcessor) {
+                AutowiredAnnotationBeanPostProcessor processor = new AutowiredAnnotationBeanPostProcessor();
+                processor.setBeanFactory(bf);
+                bf.addBeanPostProcessor(processor);
+            }
+        }
+    }
+
+    /**
+     * Minimal timing helpers shared by the benchmark tests.
+     */
+    static class Bench {
+        interface Op {
+            Object run(int iteration);
+        }
+
+        /**
+         * Runs {@code op} {@code iterations} times for warm-up, then {@code iterations} times timed
+         * @return average nanoseconds per operation
+         */
+        static long measure(int iterations, Op op) {
+            Object sink = null;
+            for (int i = 0; i < iterations; i++) {
+                sink = op.run(i);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink = op.run(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (sink == Bench.class) {
+                System.out.println(sink);
+            }
+            return elapsed / iterations;
+        }
+
+        /**
+         * Runs {@code op} {@code iterations} times for warm-up, then {@code iterations} times measuring the bytes
+         * allocated by the current thread
+         * @return average bytes per operation, -1 if the JVM can't measure thread allocation
+         */
+        static long allocated(int iterations, Op op) {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)
+                    || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            Object sink = null;
+            for (int i = 0; i < iterations; i++) {
+                sink = op.run(i);
+            }
+            long threadId = Thread.currentThread().getId();
+            long before = allocation.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                sink = op.run(i);
+            }
+            long bytes = allocation.getThreadAllocatedBytes(threadId) - before;
+            if (sink == Bench.class) {
+                System.out.println(sink);
+            }
+            return bytes / iterations;
+        }
+
+        static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    static class Leaf0 {
+    }
+
+    static class Leaf1 {
+    }
+
+    static class Leaf2 {
+    }
+
+    static class Leaf3 {
+    }
+
+    static class Node0 implements B02_ProxyPostProcessor.Interface1 {
+        @Autowired(required = false)
+        private Leaf0 autowiredLeaf;
+        private boolean initCalled;
+        private boolean destroyCalled;
+
+        @B03_InitDestroyPostProcessor.MyInit
+        public void init() {
+            initCalled = true;
+        }
+
+        @B03_InitDestroyPostProcessor.MyDestroy
+        public void destroy() {
+            destroyCalled = true;
+        }
+
+        public String exampleCall(String in) {
+            return in;
+        }
+
+        public Leaf0 getAutowiredLeaf() {
+            return autowiredLeaf;
+        }
+
+        public boolean isInitCalled() {
+            return initCalled;
+        }
+
+        public boolean isDestroyCalled() {
+            return destroyCalled;
+        }
+    }
+
+    static class Node1 extends Node0 {
+        private Leaf0 leaf0;
+
+        public Leaf0 getLeaf0() {
+            return leaf0;
+        }
+
+        public void setLeaf0(Leaf0 leaf0) {
+            this.leaf0 = leaf0;
+        }
+    }
+
+    static class Node2 extends Node1 {
+        private Leaf1 leaf1;
+
+        public Leaf1 getLeaf1() {
+            return leaf1;
+        }
+
+        public void setLeaf1(Leaf1 leaf1) {
+            this.leaf1 = leaf1;
+        }
+    }
+
+    static class Node3 extends Node2 {
+        private Leaf2 leaf2;
+
+        public Leaf2 getLeaf2() {
+            return leaf2;
+        }
+
+        public void setLeaf2(Leaf2 leaf2) {
+            this.leaf2 = leaf2;
+        }
+    }
+
+    static class Node4 extends Node3 {
+        private Leaf3 leaf3;
+
+        public Leaf3 getLeaf3() {
+            return leaf3;
+        }
+
+        public void setLeaf3(Leaf3 leaf3) {
+            this.leaf3 = leaf3;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.annotation.InitDestroyAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C02_ApplicableBeanPostProcessors {
+    /**
+     * Only processors applicable to the bean class take part in its initialization.
+     * Unfiltered, {@link B02_ProxyPostProcessor.ProxyBeanProcessor} would turn {@code plain} into an {@code Interface1} proxy.
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#initializeBean(String, Object, RootBeanDefinition)
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#applyBeanPostProcessorsBeforeInitialization(Object, String)
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#applyBeanPostProcessorsAfterInitialization(Object, String)
+     */
+    @Test
+    void applicableProcessors() {
+        ApplicabilityFilteringBeanFactory bf = new ApplicabilityFilteringBeanFactory();
+
+        GenericBeanDefinition bd1 = new GenericBeanDefinition();
+        bd1.setBeanClass(B02_ProxyPostProcessor.Bean1.class);
+        bf.registerBeanDefinition("proxied", bd1);
+
+        GenericBeanDefinition bd2 = new GenericBeanDefinition();
+        bd2.setBeanClass(B03_InitDestroyPostProcessor.Bean1.class);
+        bf.registerBeanDefinition("plain", bd2);
+
+        B01_LoggingPostProcessors.LoggingBeanProcessor logging = new B01_LoggingPostProcessors.LoggingBeanProcessor();
+        bf.addBeanPostProcessor(logging);
+        bf.addBeanPostProcessor(new B02_ProxyPostProcessor.ProxyBeanProcessor(),
+                B02_ProxyPostProcessor.Interface1.class::isAssignableFrom);
+        bf.addBeanPostProcessor(initDestroyProcessor(),
+                beanClass -> hasAnnotatedMethod(beanClass, B03_InitDestroyPostProcessor.MyInit.class));
+        AutowiredAnnotationBeanPostProcessor autowired = new AutowiredAnnotationBeanPostProcessor();
+        autowired.setBeanFactory(bf);
+        bf.addBeanPostProcessor(autowired);
+
+        B02_ProxyPostProcessor.Interface1 proxied = bf.getBean("proxied", B02_ProxyPostProcessor.Interface1.class);
+        B03_InitDestroyPostProcessor.Bean1 plain = bf.getBean("plain", B03_InitDestroyPostProcessor.Bean1.class);
+
+        assertThat(Proxy.isProxyClass(proxied.getClass())).isTrue();
+        assertThat(plain.isInitCalled()).isTrue();
+        assertThat(logging.isBeforeInitializationCalled()).isTrue();
+        // proxied: logging before/after + proxy after, plain: logging and init/destroy before/after
+        assertThat(bf.getInvokedCallbacks()).isEqualTo(7);
+        assertThat(bf.getSkippedCallbacks()).isEqualTo(9);
+    }
+
+    /**
+     * Callback reduction and pre-instantiation time on a generated 10k bean context.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void callReductionBenchmark() {
+        C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                .beanCount(10_000)
+                .autowireFanOut(2)
+                .initDestroyProcessor(true)
+                .autowiredProcessor(true);
+
+        for (int round = 0; round < 3; round++) {
+            DefaultListableBeanFactory plain = new DefaultListableBeanFactory();
+            C01_LargeContextGenerator.LargeContextGenerator.addPostProcessors(plain, shape);
+            C01_LargeContextGenerator.LargeContextGenerator.register(plain, shape);
+            plain.freezeConfiguration();
+            long start = System.nanoTime();
+            plain.preInstantiateSingletons();
+            long plainNanos = System.nanoTime() - start;
+
+            ApplicabilityFilteringBeanFactory filtering = new ApplicabilityFilteringBeanFactory();
+            C01_LargeContextGenerator.LargeContextGenerator.addPostProcessors(filtering, shape);
+            for (BeanPostProcessor processor : filtering.getBeanPostProcessors()) {
+                if (processor instanceof InitDestroyAnnotationBeanPostProcessor) {
+                    filtering.setApplicability(processor,
+                            beanClass -> hasAnnotatedMethod(beanClass, B03_InitDestroyPostProcessor.MyInit.class));
+                }
+            }
+            C01_LargeContextGenerator.LargeContextGenerator.register(filtering, shape);
+            filtering.freezeConfiguration();
+            start = System.nanoTime();
+            filtering.preInstantiateSingletons();
+            long filteringNanos = System.nanoTime() - start;
+
+            long invoked = filtering.getInvokedCallbacks();
+            long skipped = filtering.getSkippedCallbacks();
+            System.out.printf("round %d: unfiltered %,d ms, filtered %,d ms, callbacks invoked %,d, skipped %,d (%.0f%%)%n",
+                    round, plainNanos / 1_000_000, filteringNanos / 1_000_000, invoked, skipped,
+                    100.0 * skipped / (invoked + skipped));
+        }
+    }
+
+    static InitDestroyAnnotationBeanPostProcessor initDestroyProcessor() {
+        InitDestroyAnnotationBeanPostProcessor processor = new InitDestroyAnnotationBeanPostProcessor();
+        processor.setInitAnnotationType(B03_InitDestroyPostProcessor.MyInit.class);
+        processor.setDestroyAnnotationType(B03_InitDestroyPostProcessor.MyDestroy.class);
+        return processor;
+    }
+
+    static boolean hasAnnotatedMethod(Class<?> beanClass, Class<? extends Annotation> annotationType) {
+        return !MethodIntrospector.selectMethods(beanClass,
+                (ReflectionUtils.MethodFilter) method -> method.isAnnotationPresent(annotationType)).isEmpty();
+    }
+
+    /**
+     * Post-processor that declares for which bean classes its initialization callbacks have any effect.
+     */
+    interface ApplicableBeanPostProcessor extends BeanPostProcessor {
+        boolean isApplicableTo(Class<?> beanClass);
+    }
+
+    /**
+     * Factory running {@link BeanPostProcessor} initialization callbacks through a trimmed chain cached per merged
+     * bean definition. A processor is left out of the chain when it is not applicable to the bean class, either
+     * through {@link ApplicableBeanPostProcessor} or a predicate given at registration, or when it only inherits
+     * the no-op default of the callback.
+     * <p>
+     * Only the initialization phase is trimmed, instantiation-aware callbacks already go through the
+     * per-type split in {@code AbstractBeanFactory.BeanPostProcessorCache}.
+     */
+    static class ApplicabilityFilteringBeanFactory extends DefaultListableBeanFactory {
+        private static final Predicate<Class<?>> ALWAYS = beanClass -> true;
+
+        private final Map<BeanPostProcessor, Predicate<Class<?>>> applicability = new ConcurrentHashMap<>();
+        private final Map<Class<?>, boolean[]> declaredCallbacks = new ConcurrentHashMap<>();
+        private final Map<String, Chain> chainsByName = new ConcurrentHashMap<>(256);
+        private final Map<Class<?>, Chain> chainsByClass = new ConcurrentHashMap<>();
+        private final LongAdder invokedCallbacks = new LongAdder();
+        private final LongAdder skippedCallbacks = new LongAdder();
+
+        void addBeanPostProcessor(BeanPostProcessor beanPostProcessor, Predicate<Class<?>> applicableTo) {
+            setApplicability(beanPostProcessor, applicableTo);
+            addBeanPostProcessor(beanPostProcessor);
+        }
+
+        void setApplicability(BeanPostProcessor beanPostProcessor, Predicate<Class<?>> applicableTo) {
+            this.applicability.put(beanPostProcessor, applicableTo);
+            clearChains();
+        }
+
+        @Override
+        public void addBeanPostProcessor(BeanPostProcessor beanPostProcessor) {
+            super.addBeanPostProcessor(beanPostProcessor);
+            clearChains();
+        }
+
+        @Override
+        public void addBeanPostProcessors(Collection<? extends BeanPostProcessor> beanPostProcessors) {
+            super.addBeanPostProcessors(beanPostProcessors);
+            clearChains();
+        }
+
+        @Override
+        public Object applyBeanPostProcessorsBeforeInitialization(Object existingBean, String beanName) throws BeansException {
+            BeanPostProcessor[] processors = chainFor(existingBean, beanName).before;
+            count(processors);
+            Object result = existingBean;
+            for (BeanPostProcessor processor : processors) {
+                Object current = processor.postProcessBeforeInitialization(result, beanName);
+                if (current == null) {
+                    return result;
+                }
+                result = current;
+            }
+            return result;
+        }
+
+        @Override
+        public Object applyBeanPostProcessorsAfterInitialization(Object existingBean, String beanName) throws BeansException {
+            BeanPostProcessor[] processors = chainFor(existingBean, beanName).after;
+            count(processors);
+            Object result = existingBean;
+            for (BeanPostProcessor processor : processors) {
+                Object current = processor.postProcessAfterInitialization(result, beanName);
+                if (current == null) {
+                    return result;
+                }
+                result = current;
+            }
+            return result;
+        }
+
+        long getInvokedCallbacks() {
+            return invokedCallbacks.sum();
+        }
+
+        long getSkippedCallbacks() {
+            return skippedCallbacks.sum();
+        }
+
+        private void count(BeanPostProcessor[] processors) {
+            invokedCallbacks.add(processors.length);
+            skippedCallbacks.add(getBeanPostProcessorCount() - processors.length);
+        }
+
+        private void clearChains() {
+            chainsByName.clear();
+            chainsByClass.clear();
+        }
+
+        private Chain chainFor(Object bean, String beanName) {
+            Class<?> beanClass = bean.getClass();
+            int processorCount = getBeanPostProcessorCount();
+            if (beanName != null && containsBeanDefinition(beanName)) {
+                RootBeanDefinition mbd = getMergedLocalBeanDefinition(beanName);
+                Chain chain = chainsByName.get(beanName);
+                if (chain == null || !chain.isValidFor(mbd, beanClass, processorCount)) {
+                    chain = buildChain(mbd, beanClass, processorCount);
+                    chainsByName.put(beanName, chain);
+                }
+                return chain;
+            }
+            Chain chain = chainsByClass.get(beanClass);
+            if (chain == null || !chain.isValidFor(null, beanClass, processorCount)) {
+                chain = buildChain(null, beanClass, processorCount);
+                chainsByClass.put(beanClass, chain);
+            }
+            return chain;
+        }
+
+        private Chain buildChain(RootBeanDefinition mbd, Class<?> beanClass, int processorCount) {
+            List<BeanPostProcessor> before = new ArrayList<>();
+            List<BeanPostProcessor> after = new ArrayList<>();
+            for (BeanPostProcessor processor : getBeanPostProcessors()) {
+                if (!isApplicable(processor, beanClass)) {
+                    continue;
+                }
+                boolean[] declared = declaredCallbacks.computeIfAbsent(processor.getClass(),
+                        ApplicabilityFilteringBeanFactory::declaredCallbacks);
+                if (declared[0]) {
+                    before.add(processor);
+                }
+                if (declared[1]) {
+                    after.add(processor);
+                }
+            }
+            return new Chain(mbd, beanClass, processorCount,
+                    before.toArray(new BeanPostProcessor[0]), after.toArray(new BeanPostProcessor[0]));
+        }
+
+        private boolean isApplicable(BeanPostProcessor processor, Class<?> beanClass) {
+            if (processor instanceof ApplicableBeanPostProcessor) {
+                return ((ApplicableBeanPostProcessor) processor).isApplicableTo(beanClass);
+            }
+            return applicability.getOrDefault(processor, ALWAYS).test(beanClass);
+        }
+
+        /**
+         * Whether the processor overrides the before/after initialization defaults of {@link BeanPostProcessor}
+         */
+        private static boolean[] declaredCallbacks(Class<?> processorClass) {
+            return new boolean[] {
+                    overrides(processorClass, "postProcessBeforeInitialization"),
+                    overrides(processorClass, "postProcessAfterInitialization")
+            };
+        }
+
+        private static boolean overrides(Class<?> processorClass, String methodName) {
+            Method method = ClassUtils.getMethodIfAvailable(processorClass, methodName, Object.class, String.class);
+            return method == null || method.getDeclaringClass() != BeanPostProcessor.class;
+        }
+
+        /**
+         * Trimmed chain, valid as long as the merged definition, the bean class and the processor list are unchanged
+         */
+        private static class Chain {
+            private final RootBeanDefinition mbd;
+            private final Class<?> beanClass;
+            private final int processorCount;
+            private final BeanPostProcessor[] before;
+            private final BeanPostProcessor[] after;
+
+            Chain(RootBeanDefinition mbd, Class<?> beanClass, int processorCount,
+                  BeanPostProcessor[] before, BeanPostProcessor[] after) {
+                this.mbd = mbd;
+                this.beanClass = beanClass;
+                this.processorCount = processorCount;
+                this.before = before;
+                this.after = after;
+            }
+
+            boolean isValidFor(RootBeanDefinition mbd, Class<?> beanClass, int processorCount) {
+                return this.mbd == mbd && this.beanClass == beanClass && this.processorCount == processorCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,721 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.ResolvableType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C03_CompactBeanDefinitions {
+    /**
+     * Compact definitions share one immutable template per distinct set of settings
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#getMergedBeanDefinition(String, BeanDefinition, BeanDefinition)
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#getMergedLocalBeanDefinition(String)
+     */
+    @Test
+    void compactDefinitions() {
+        CompactBeanFactory bf = new CompactBeanFactory();
+
+        CompactBeanDefinition parentBd = new CompactBeanDefinition();
+        parentBd.setBeanClass(A01_BasicBeanFactory.Parent.class);
+        parentBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        parentBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("parent", parentBd);
+
+        CompactBeanDefinition childBd = new CompactBeanDefinition();
+        childBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        bf.registerBeanDefinition("child", childBd);
+
+        CompactBeanDefinition otherChildBd = new CompactBeanDefinition();
+        otherChildBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        bf.registerBeanDefinition("otherChild", otherChildBd);
+        otherChildBd.setAutowireCandidate(false);
+
+        A01_BasicBeanFactory.Parent parent1 = bf.getBean("parent", A01_BasicBeanFactory.Parent.class);
+        A01_BasicBeanFactory.Parent parent2 = bf.getBean("parent", A01_BasicBeanFactory.Parent.class);
+
+        assertThat(parent1).isNotSameAs(parent2);
+        assertThat(parent1.getChild()).isSameAs(bf.getBean("child"));
+        assertThat(childBd.getTemplate()).isSameAs(new CompactBeanDefinition(A01_BasicBeanFactory.Child.class).getTemplate());
+        assertThat(otherChildBd.getTemplate()).isNotSameAs(childBd.getTemplate());
+    }
+
+    /**
+     * Compact children inherit from compact or regular parents like {@link A01_BasicBeanFactory#hierarchicalBeanDefinition()}
+     * @see AbstractBeanDefinition#overrideFrom(BeanDefinition)
+     */
+    @Test
+    void hierarchicalCompactDefinition() {
+        CompactBeanFactory bf = new CompactBeanFactory();
+
+        GenericBeanDefinition parentBd = new GenericBeanDefinition();
+        parentBd.setBeanClass(A01_BasicBeanFactory.Bean1.class);
+        parentBd.setAbstract(true);
+        parentBd.setInitMethodName("init");
+        bf.registerBeanDefinition("parent", parentBd);
+
+        CompactBeanDefinition child1Bd = new CompactBeanDefinition();
+        child1Bd.setParentName("parent");
+        child1Bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("child1", child1Bd);
+
+        CompactBeanDefinition child2Bd = new CompactBeanDefinition();
+        child2Bd.setParentName("parent");
+        bf.registerBeanDefinition("child2", child2Bd);
+
+        assertThat(bf.getBean("child1")).isNotSameAs(bf.getBean("child1"));
+        assertThat(bf.getBean("child2")).isSameAs(bf.getBean("child2"));
+        assertThat(bf.getMergedBeanDefinition("child2").getInitMethodName()).isEqualTo("init");
+    }
+
+    /**
+     * Merged definitions of created singletons are not needed by {@code getBean} and can be dropped
+     * @see CompactBeanFactory#discardUnusedMergedBeanDefinitions()
+     */
+    @Test
+    void discardUnusedMerges() {
+        CompactBeanFactory bf = new CompactBeanFactory();
+
+        CompactBeanDefinition singletonBd = new CompactBeanDefinition(A01_BasicBeanFactory.Bean1.class);
+        bf.registerBeanDefinition("singleton", singletonBd);
+
+        CompactBeanDefinition prototypeBd = new CompactBeanDefinition(A01_BasicBeanFactory.Bean1.class);
+        prototypeBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("prototype", prototypeBd);
+
+        bf.preInstantiateSingletons();
+        bf.getBean("prototype");
+
+        assertThat(bf.discardUnusedMergedBeanDefinitions()).isEqualTo(1);
+        assertThat(bf.getBean("singleton")).isNotNull();
+        assertThat(bf.getBean("prototype")).isNotNull();
+    }
+
+    /**
+     * Heap footprint of 100k regular and compact definitions, before and after merging.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void heapFootprintBenchmark() {
+        int beanCount = 100_000;
+
+        long heapBefore = C01_LargeContextGenerator.Bench.usedHeap();
+        DefaultListableBeanFactory regular = new DefaultListableBeanFactory();
+        for (int i = 0; i < beanCount; i++) {
+            GenericBeanDefinition bd = new GenericBeanDefinition();
+            bd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+            bd.setScope(i % 10 == 0 ? BeanDefinition.SCOPE_PROTOTYPE : BeanDefinition.SCOPE_SINGLETON);
+            regular.registerBeanDefinition("bean" + i, bd);
+        }
+        long regularRegistered = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+        for (String name : regular.getBeanDefinitionNames()) {
+            regular.getMergedBeanDefinition(name);
+        }
+        long regularMerged = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+        regular = null;
+
+        heapBefore = C01_LargeContextGenerator.Bench.usedHeap();
+        CompactBeanFactory compact = new CompactBeanFactory();
+        for (int i = 0; i < beanCount; i++) {
+            CompactBeanDefinition bd = new CompactBeanDefinition(C01_LargeContextGenerator.Leaf0.class);
+            bd.setScope(i % 10 == 0 ? BeanDefinition.SCOPE_PROTOTYPE : BeanDefinition.SCOPE_SINGLETON);
+            compact.registerBeanDefinition("bean" + i, bd);
+        }
+        long compactRegistered = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+        for (String name : compact.getBeanDefinitionNames()) {
+            compact.getMergedBeanDefinition(name);
+        }
+        long compactMerged = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+        compact.preInstantiateSingletons();
+        long compactInstantiated = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+        int discarded = compact.discardUnusedMergedBeanDefinitions();
+        long compactDiscarded = C01_LargeContextGenerator.Bench.usedHeap() - heapBefore;
+
+        System.out.printf("%,d definitions: regular %,d KB registered, %,d KB merged%n",
+                beanCount, regularRegistered / 1024, regularMerged / 1024);
+        System.out.printf("%,d definitions: compact %,d KB registered, %,d KB merged, "
+                        + "%,d KB with singletons, %,d KB after discarding %,d merges%n",
+                beanCount, compactRegistered / 1024, compactMerged / 1024,
+                compactInstantiated / 1024, compactDiscarded / 1024, discarded);
+    }
+
+    /**
+     * Immutable set of definition settings shared by all {@link CompactBeanDefinition}s configured alike.
+     * Instances are pooled, changing a setting on a definition swaps its template for another pooled one.
+     */
+    static final class DefinitionTemplate {
+        private static final Map<DefinitionTemplate, DefinitionTemplate> POOL = new ConcurrentHashMap<>();
+
+        static final DefinitionTemplate DEFAULT = new DefinitionTemplate().intern();
+
+        // only written before the template is published through intern()
+        private Class<?> beanClass;
+        private String beanClassName;
+        private String scope = AbstractBeanDefinition.SCOPE_DEFAULT;
+        private boolean abstractFlag;
+        private boolean lazyInit;
+        private int autowireMode = AbstractBeanDefinition.AUTOWIRE_NO;
+        private boolean autowireCandidate = true;
+        private boolean primary;
+        private int role = BeanDefinition.ROLE_APPLICATION;
+        private String factoryBeanName;
+        private String factoryMethodName;
+        private String initMethodName;
+        private String destroyMethodName;
+
+        private DefinitionTemplate() {
+        }
+
+        DefinitionTemplate with(Consumer<DefinitionTemplate> change) {
+            DefinitionTemplate copy = new DefinitionTemplate();
+            copy.beanClass = beanClass;
+            copy.beanClassName = beanClassName;
+            copy.scope = scope;
+            copy.abstractFlag = abstractFlag;
+            copy.lazyInit = lazyInit;
+            copy.autowireMode = autowireMode;
+            copy.autowireCandidate = autowireCandidate;
+            copy.primary = primary;
+            copy.role = role;
+            copy.factoryBeanName = factoryBeanName;
+            copy.factoryMethodName = factoryMethodName;
+            copy.initMethodName = initMethodName;
+            copy.destroyMethodName = destroyMethodName;
+            change.accept(copy);
+            return copy.equals(this) ? this : copy.intern();
+        }
+
+        private DefinitionTemplate intern() {
+            beanClassName = intern(beanClassName);
+            scope = intern(scope);
+            factoryBeanName = intern(factoryBeanName);
+            factoryMethodName = intern(factoryMethodName);
+            initMethodName = intern(initMethodName);
+            destroyMethodName = intern(destroyMethodName);
+            DefinitionTemplate existing = POOL.putIfAbsent(this, this);
+            return existing != null ? existing : this;
+        }
+
+        @Nullable
+        static String intern(@Nullable String value) {
+            return value != null ? value.intern() : null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof DefinitionTemplate)) {
+                return false;
+            }
+            DefinitionTemplate that = (DefinitionTemplate) other;
+            return beanClass == that.beanClass && abstractFlag == that.abstractFlag && lazyInit == that.lazyInit
+                    && autowireMode == that.autowireMode && autowireCandidate == that.autowireCandidate
+                    && primary == that.primary && role == that.role
+                    && Objects.equals(beanClassName, that.beanClassName) && Objects.equals(scope, that.scope)
+                    && Objects.equals(factoryBeanName, that.factoryBeanName)
+                    && Objects.equals(factoryMethodName, that.factoryMethodName)
+                    && Objects.equals(initMethodName, that.initMethodName)
+                    && Objects.equals(destroyMethodName, that.destroyMethodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(beanClassName, scope, abstractFlag, lazyInit, autowireMode, autowireCandidate, primary,
+                    role, factoryBeanName, factoryMethodName, initMethodName, destroyMethodName);
+        }
+    }
+
+    /**
+     * {@link BeanDefinition} holding only what differs per bean: the name of its parent, {@code dependsOn} and,
+     * allocated on first use, property values, constructor arguments and attributes. All other settings live in a
+     * shared {@link DefinitionTemplate}.
+     * <p>
+     * Unlike {@link GenericBeanDefinition} there are no method overrides, qualifiers or instance suppliers.
+     */
+    static class CompactBeanDefinition implements BeanDefinition {
+        private DefinitionTemplate template = DefinitionTemplate.DEFAULT;
+        private String parentName;
+        private String[] dependsOn;
+        private ConstructorArgumentValues constructorArgumentValues;
+        private MutablePropertyValues propertyValues;
+        private Map<String, Object> attributes;
+        private String description;
+        private Object source;
+
+        CompactBeanDefinition() {
+        }
+
+        CompactBeanDefinition(Class<?> beanClass) {
+            setBeanClass(beanClass);
+        }
+
+        DefinitionTemplate getTemplate() {
+            return template;
+        }
+
+        void setBeanClass(Class<?> beanClass) {
+            template = template.with(t -> {
+                t.beanClass = beanClass;
+                t.beanClassName = beanClass.getName();
+            });
+        }
+
+        @Nullable
+        Class<?> getBeanClass() {
+            return template.beanClass;
+        }
+
+        @Override
+        public void setParentName(@Nullable String parentName) {
+            this.parentName = DefinitionTemplate.intern(parentName);
+        }
+
+        @Override
+        @Nullable
+        public String getParentName() {
+            return parentName;
+        }
+
+        @Override
+        public void setBeanClassName(@Nullable String beanClassName) {
+            template = template.with(t -> {
+                t.beanClass = null;
+                t.beanClassName = beanClassName;
+            });
+        }
+
+        @Override
+        @Nullable
+        public String getBeanClassName() {
+            return template.beanClassName;
+        }
+
+        @Override
+        public void setScope(@Nullable String scope) {
+            template = template.with(t -> t.scope = scope);
+        }
+
+        @Override
+        @Nullable
+        public String getScope() {
+            return template.scope;
+        }
+
+        @Override
+        public void setLazyInit(boolean lazyInit) {
+            template = template.with(t -> t.lazyInit = lazyInit);
+        }
+
+        @Override
+        public boolean isLazyInit() {
+            return template.lazyInit;
+        }
+
+        @Override
+        public void setDependsOn(@Nullable String... dependsOn) {
+            if (ObjectUtils.isEmpty(dependsOn)) {
+                this.dependsOn = null;
+                return;
+            }
+            String[] interned = new String[dependsOn.length];
+            for (int i = 0; i < dependsOn.length; i++) {
+                interned[i] = DefinitionTemplate.intern(dependsOn[i]);
+            }
+            this.dependsOn = interned;
+        }
+
+        @Override
+        @Nullable
+        public String[] getDependsOn() {
+            return dependsOn;
+        }
+
+        @Override
+        public void setAutowireCandidate(boolean autowireCandidate) {
+            template = template.with(t -> t.autowireCandidate = autowireCandidate);
+        }
+
+        @Override
+        public boolean isAutowireCandidate() {
+            return template.autowireCandidate;
+        }
+
+        void setAutowireMode(int autowireMode) {
+            template = template.with(t -> t.autowireMode = autowireMode);
+        }
+
+        int getAutowireMode() {
+            return template.autowireMode;
+        }
+
+        void setAbstract(boolean abstractFlag) {
+            template = template.with(t -> t.abstractFlag = abstractFlag);
+        }
+
+        @Override
+        public void setPrimary(boolean primary) {
+            template = template.with(t -> t.primary = primary);
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return template.primary;
+        }
+
+        @Override
+        public void setFactoryBeanName(@Nullable String factoryBeanName) {
+            template = template.with(t -> t.factoryBeanName = factoryBeanName);
+        }
+
+        @Override
+        @Nullable
+        public String getFactoryBeanName() {
+            return template.factoryBeanName;
+        }
+
+        @Override
+        public void setFactoryMethodName(@Nullable String factoryMethodName) {
+            template = template.with(t -> t.factoryMethodName = factoryMethodName);
+        }
+
+        @Override
+        @Nullable
+        public String getFactoryMethodName() {
+            return template.factoryMethodName;
+        }
+
+        @Override
+        public ConstructorArgumentValues getConstructorArgumentValues() {
+            if (constructorArgumentValues == null) {
+                constructorArgumentValues = new ConstructorArgumentValues();
+            }
+            return constructorArgumentValues;
+        }
+
+        @Override
+        public boolean hasConstructorArgumentValues() {
+            return constructorArgumentValues != null && !constructorArgumentValues.isEmpty();
+        }
+
+        @Override
+        public MutablePropertyValues getPropertyValues() {
+            if (propertyValues == null) {
+                propertyValues = new MutablePropertyValues();
+            }
+            return propertyValues;
+        }
+
+        @Override
+        public boolean hasPropertyValues() {
+            return propertyValues != null && !propertyValues.isEmpty();
+        }
+
+        @Override
+        public void setInitMethodName(@Nullable String initMethodName) {
+            template = template.with(t -> t.initMethodName = initMethodName);
+        }
+
+        @Override
+        @Nullable
+        public String getInitMethodName() {
+            return template.initMethodName;
+        }
+
+        @Override
+        public void setDestroyMethodName(@Nullable String destroyMethodName) {
+            template = template.with(t -> t.destroyMethodName = destroyMethodName);
+        }
+
+        @Override
+        @Nullable
+        public String getDestroyMethodName() {
+            return template.destroyMethodName;
+        }
+
+        @Override
+        public void setRole(int role) {
+            template = template.with(t -> t.role = role);
+        }
+
+        @Override
+        public int getRole() {
+            return template.role;
+        }
+
+        @Override
+        public void setDescription(@Nullable String description) {
+            this.description = description;
+        }
+
+        @Override
+        @Nullable
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public ResolvableType getResolvableType() {
+            return template.beanClass != null ? ResolvableType.forClass(template.beanClass) : ResolvableType.NONE;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return SCOPE_SINGLETON.equals(template.scope) || AbstractBeanDefinition.SCOPE_DEFAULT.equals(template.scope);
+        }
+
+        @Override
+        public boolean isPrototype() {
+            return SCOPE_PROTOTYPE.equals(template.scope);
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return template.abstractFlag;
+        }
+
+        @Override
+        @Nullable
+        public String getResourceDescription() {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        public BeanDefinition getOriginatingBeanDefinition() {
+            return null;
+        }
+
+        void setSource(@Nullable Object source) {
+            this.source = source;
+        }
+
+        @Override
+        @Nullable
+        public Object getSource() {
+            return source;
+        }
+
+        @Override
+        public void setAttribute(String name, @Nullable Object value) {
+            if (value == null) {
+                removeAttribute(name);
+                return;
+            }
+            if (attributes == null) {
+                attributes = new LinkedHashMap<>(4);
+            }
+            attributes.put(name, value);
+        }
+
+        @Override
+        @Nullable
+        public Object getAttribute(String name) {
+            return attributes != null ? attributes.get(name) : null;
+        }
+
+        @Override
+        @Nullable
+        public Object removeAttribute(String name) {
+            return attributes != null ? attributes.remove(name) : null;
+        }
+
+        @Override
+        public boolean hasAttribute(String name) {
+            return attributes != null && attributes.containsKey(name);
+        }
+
+        @Override
+        public String[] attributeNames() {
+            return attributes != null ? StringUtils.toStringArray(attributes.keySet()) : new String[0];
+        }
+
+        /**
+         * Full merged form of a definition without parent
+         */
+        RootBeanDefinition toRootBeanDefinition() {
+            RootBeanDefinition mbd = new RootBeanDefinition();
+            if (template.beanClass != null) {
+                mbd.setBeanClass(template.beanClass);
+            } else {
+                mbd.setBeanClassName(template.beanClassName);
+            }
+            mbd.setScope(template.scope);
+            mbd.setAbstract(template.abstractFlag);
+            mbd.setLazyInit(template.lazyInit);
+            mbd.setAutowireMode(template.autowireMode);
+            mbd.setAutowireCandidate(template.autowireCandidate);
+            mbd.setPrimary(template.primary);
+            mbd.setRole(template.role);
+            mbd.setFactoryBeanName(template.factoryBeanName);
+            mbd.setFactoryMethodName(template.factoryMethodName);
+            mbd.setInitMethodName(template.initMethodName);
+            mbd.setDestroyMethodName(template.destroyMethodName);
+            mbd.setDependsOn(dependsOn);
+            mbd.setDescription(description);
+            mbd.setSource(source);
+            copyValuesInto(mbd);
+            return mbd;
+        }
+
+        /**
+         * Applies this child definition on top of a copy of its merged parent, following
+         * {@link AbstractBeanDefinition#overrideFrom(BeanDefinition)}
+         */
+        void overrideInto(RootBeanDefinition mbd) {
+            if (template.beanClass != null) {
+                mbd.setBeanClass(template.beanClass);
+            } else if (template.beanClassName != null) {
+                mbd.setBeanClassName(template.beanClassName);
+            }
+            if (StringUtils.hasLength(template.scope)) {
+                mbd.setScope(template.scope);
+            }
+            mbd.setAbstract(template.abstractFlag);
+            if (template.lazyInit) {
+                mbd.setLazyInit(true);
+            }
+            mbd.setAutowireMode(template.autowireMode);
+            mbd.setAutowireCandidate(template.autowireCandidate);
+            mbd.setPrimary(template.primary);
+            mbd.setRole(template.role);
+            mbd.setDependsOn(dependsOn);
+            if (template.factoryBeanName != null) {
+                mbd.setFactoryBeanName(template.factoryBeanName);
+            }
+            if (template.factoryMethodName != null) {
+                mbd.setFactoryMethodName(template.factoryMethodName);
+            }
+            if (template.initMethodName != null) {
+                mbd.setInitMethodName(template.initMethodName);
+            }
+            if (template.destroyMethodName != null) {
+                mbd.setDestroyMethodName(template.destroyMethodName);
+            }
+            mbd.setSource(source);
+            copyValuesInto(mbd);
+        }
+
+        private void copyValuesInto(RootBeanDefinition mbd) {
+            if (hasConstructorArgumentValues()) {
+                mbd.getConstructorArgumentValues().addArgumentValues(constructorArgumentValues);
+            }
+            if (hasPropertyValues()) {
+                mbd.getPropertyValues().addPropertyValues(propertyValues);
+            }
+            if (attributes != null) {
+                attributes.forEach(mbd::setAttribute);
+            }
+        }
+    }
+
+    /**
+     * Factory merging {@link CompactBeanDefinition}s without the {@code RootBeanDefinition} copy constructor and
+     * keeping those merges in its own cache, from which merges nobody needs anymore can be discarded.
+     */
+    static class CompactBeanFactory extends DefaultListableBeanFactory {
+        private final Map<String, RootBeanDefinition> mergedCompactDefinitions = new ConcurrentHashMap<>(256);
+
+        @Override
+        protected RootBeanDefinition getMergedLocalBeanDefinition(String beanName) {
+            RootBeanDefinition mbd = mergedCompactDefinitions.get(beanName);
+            if (mbd != null) {
+                return mbd;
+            }
+            return super.getMergedLocalBeanDefinition(beanName);
+        }
+
+        @Override
+        protected RootBeanDefinition getMergedBeanDefinition(String beanName, BeanDefinition bd,
+                                                             @Nullable BeanDefinition containingBd) {
+            if (!(bd instanceof CompactBeanDefinition)) {
+                return super.getMergedBeanDefinition(beanName, bd, containingBd);
+            }
+            CompactBeanDefinition compact = (CompactBeanDefinition) bd;
+            RootBeanDefinition mbd;
+            if (compact.getParentName() == null) {
+                mbd = compact.toRootBeanDefinition();
+            } else {
+                BeanDefinition pbd = getParentDefinition(beanName, compact.getParentName());
+                if (pbd instanceof RootBeanDefinition) {
+                    mbd = new RootBeanDefinition((RootBeanDefinition) pbd);
+                } else {
+                    mbd = new RootBeanDefinition();
+                    mbd.overrideFrom(pbd);
+                }
+                compact.overrideInto(mbd);
+            }
+            if (!StringUtils.hasLength(mbd.getScope())) {
+                mbd.setScope(SCOPE_SINGLETON);
+            }
+            if (containingBd != null && !containingBd.isSingleton() && mbd.isSingleton()) {
+                mbd.setScope(containingBd.getScope());
+            }
+            if (containingBd == null && isCacheBeanMetadata()) {
+                mergedCompactDefinitions.put(beanName, mbd);
+            }
+            return mbd;
+        }
+
+        private BeanDefinition getParentDefinition(String beanName, String parentName) {
+            String parentBeanName = transformedBeanName(parentName);
+            if (!beanName.equals(parentBeanName)) {
+                return getMergedBeanDefinition(parentBeanName);
+            }
+            BeanFactory parent = getParentBeanFactory();
+            if (parent instanceof ConfigurableBeanFactory) {
+                return ((ConfigurableBeanFactory) parent).getMergedBeanDefinition(parentBeanName);
+            }
+            throw new NoSuchBeanDefinitionException(parentBeanName, "Parent name '" + parentBeanName
+                    + "' is equal to bean name '" + beanName + "': cannot be resolved without a ConfigurableBeanFactory parent");
+        }
+
+        @Override
+        protected void clearMergedBeanDefinition(String beanName) {
+            super.clearMergedBeanDefinition(beanName);
+            mergedCompactDefinitions.remove(beanName);
+        }
+
+        @Override
+        public void clearMetadataCache() {
+            super.clearMetadataCache();
+            mergedCompactDefinitions.keySet().removeIf(beanName -> !isBeanEligibleForMetadataCaching(beanName));
+        }
+
+        /**
+         * Drops merged definitions of singletons that are already created: {@code getBean} serves those straight
+         * from the singleton cache, other users such as type matching re-merge on demand.
+         * @return number of merged definitions discarded
+         */
+        int discardUnusedMergedBeanDefinitions() {
+            int discarded = 0;
+            for (String beanName : mergedCompactDefinitions.keySet()) {
+                RootBeanDefinition mbd = mergedCompactDefinitions.get(beanName);
+                if (mbd != null && mbd.isSingleton() && containsSingleton(beanName)
+                        && mergedCompactDefinitions.remove(beanName, mbd)) {
+                    discarded++;
+                }
+            }
+            return discarded;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.TypeConverter;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.UnsatisfiedDependencyException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C04_GeneratedPropertyAccessors {
+    /**
+     * Autowire byType through cached {@link MethodHandle} setters, see {@link A01_BasicBeanFactory#autowireByType()}
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#populateBean(String, RootBeanDefinition, BeanWrapper)
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#unsatisfiedNonSimpleProperties(AbstractBeanDefinition, BeanWrapper)
+     */
+    @Test
+    void autowireByType() {
+        AccessorBeanFactory bf = new AccessorBeanFactory();
+
+        GenericBeanDefinition parentBd = new GenericBeanDefinition();
+        parentBd.setBeanClass(A01_BasicBeanFactory.Parent.class);
+        parentBd.setAutowireMode(GenericBeanDefinition.AUTOWIRE_BY_TYPE);
+        parentBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("parent", parentBd);
+
+        GenericBeanDefinition childBd = new GenericBeanDefinition();
+        childBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        bf.registerBeanDefinition("child", childBd);
+
+        A01_BasicBeanFactory.Parent parent1 = bf.getBean("parent", A01_BasicBeanFactory.Parent.class);
+        A01_BasicBeanFactory.Parent parent2 = bf.getBean("parent", A01_BasicBeanFactory.Parent.class);
+
+        assertThat(parent1.getChild()).isNotNull();
+        assertThat(parent2.getChild()).isSameAs(parent1.getChild());
+        assertThat(bf.getDependentBeans("child")).contains("parent");
+        assertThat(bf.getAccessorTableCount()).isEqualTo(1);
+    }
+
+    /**
+     * Autowire byName through cached {@link MethodHandle} setters, see {@link A01_BasicBeanFactory#autowireByName()}
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#autowireByName(String, AbstractBeanDefinition, BeanWrapper, org.springframework.beans.MutablePropertyValues)
+     */
+    @Test
+    void autowireByName() {
+        AccessorBeanFactory bf = new AccessorBeanFactory();
+        registerProperties(bf, Properties5.class);
+
+        Properties5 bean = bf.getBean("properties", Properties5.class);
+
+        assertThat(bean.getDep1()).isSameAs(bf.getBean("dep1"));
+        assertThat(bean.getDep5()).isSameAs(bf.getBean("dep5"));
+    }
+
+    /**
+     * Prototype creation with 1 to 20 autowired properties, BeanWrapper vs MethodHandle population.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void populationBenchmark() {
+        List<Class<?>> beanClasses = new ArrayList<>();
+        beanClasses.add(Properties1.class);
+        beanClasses.add(Properties5.class);
+        beanClasses.add(Properties10.class);
+        beanClasses.add(Properties20.class);
+
+        for (Class<?> beanClass : beanClasses) {
+            DefaultListableBeanFactory plain = new DefaultListableBeanFactory();
+            registerProperties(plain, beanClass);
+            AccessorBeanFactory accessors = new AccessorBeanFactory();
+            registerProperties(accessors, beanClass);
+
+            long plainNanos = C01_LargeContextGenerator.Bench.measure(100_000, i -> plain.getBean("properties"));
+            long accessorNanos = C01_LargeContextGenerator.Bench.measure(100_000, i -> accessors.getBean("properties"));
+
+            System.out.printf("%s: BeanWrapper %,d ns/op, MethodHandle %,d ns/op%n",
+                    beanClass.getSimpleName(), plainNanos, accessorNanos);
+        }
+    }
+
+    private static void registerProperties(DefaultListableBeanFactory bf, Class<?> beanClass) {
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(beanClass);
+        bd.setAutowireMode(GenericBeanDefinition.AUTOWIRE_BY_NAME);
+        bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("properties", bd);
+
+        for (int i = 1; i <= 20; i++) {
+            GenericBeanDefinition depBd = new GenericBeanDefinition();
+            depBd.setBeanClass(Dep.class);
+            bf.registerBeanDefinition("dep" + i, depBd);
+        }
+    }
+
+    /**
+     * Factory populating autowired properties through a per-class table of {@link MethodHandle} setters instead of
+     * {@link BeanWrapper} property access. Only definitions without explicit property values, dependency check and
+     * instantiation-aware post-processors take this path, anything else goes through the regular
+     * {@code populateBean}.
+     */
+    static class AccessorBeanFactory extends DefaultListableBeanFactory {
+        private final Map<Class<?>, PropertyAccessor[]> accessorTables = new ConcurrentHashMap<>();
+
+        @Override
+        protected void populateBean(String beanName, RootBeanDefinition mbd, @Nullable BeanWrapper bw) {
+            int autowireMode = mbd.getResolvedAutowireMode();
+            if (bw == null || mbd.hasPropertyValues() || hasInstantiationAwareBeanPostProcessors()
+                    || mbd.getDependencyCheck() != AbstractBeanDefinition.DEPENDENCY_CHECK_NONE
+                    || (autowireMode != AUTOWIRE_BY_NAME && autowireMode != AUTOWIRE_BY_TYPE)) {
+                super.populateBean(beanName, mbd, bw);
+                return;
+            }
+
+            Object bean = bw.getWrappedInstance();
+            // as in autowireByType: the bean wrapper already carries the registered custom editors
+            TypeConverter converter = getCustomTypeConverter();
+            if (converter == null) {
+                converter = bw;
+            }
+            for (PropertyAccessor accessor : accessorTables.computeIfAbsent(bw.getWrappedClass(), this::buildAccessorTable)) {
+                Object value = (autowireMode == AUTOWIRE_BY_NAME
+                        ? resolveByName(beanName, accessor)
+                        : resolveByType(beanName, mbd, bean, accessor, converter));
+                if (value != null) {
+                    accessor.set(beanName, mbd, bean, value, converter);
+                }
+            }
+        }
+
+        @Override
+        public void ignoreDependencyType(Class<?> type) {
+            super.ignoreDependencyType(type);
+            accessorTables.clear();
+        }
+
+        @Override
+        public void ignoreDependencyInterface(Class<?> ifc) {
+            super.ignoreDependencyInterface(ifc);
+            accessorTables.clear();
+        }
+
+        int getAccessorTableCount() {
+            return accessorTables.size();
+        }
+
+        @Nullable
+        private Object resolveByName(String beanName, PropertyAccessor accessor) {
+            if (!containsBean(accessor.propertyName)) {
+                return null;
+            }
+            Object value = getBean(accessor.propertyName);
+            registerDependentBean(accessor.propertyName, beanName);
+            return value;
+        }
+
+        @Nullable
+        private Object resolveByType(String beanName, RootBeanDefinition mbd, Object bean, PropertyAccessor accessor,
+                TypeConverter converter) {
+            if (accessor.propertyType == Object.class) {
+                // never autowire by type to an unfiltered Object property
+                return null;
+            }
+            boolean eager = !(bean instanceof PriorityOrdered);
+            DependencyDescriptor descriptor = new AutowireByTypeDependencyDescriptor(accessor.writeParameter, eager);
+            Set<String> autowiredBeanNames = new LinkedHashSet<>(2);
+            Object value;
+            try {
+                value = resolveDependency(descriptor, beanName, autowiredBeanNames, converter);
+            } catch (BeansException ex) {
+                throw new UnsatisfiedDependencyException(mbd.getResourceDescription(), beanName, accessor.propertyName, ex);
+            }
+            for (String autowiredBeanName : autowiredBeanNames) {
+                registerDependentBean(autowiredBeanName, beanName);
+            }
+            return value;
+        }
+
+        /**
+         * Same selection as {@code unsatisfiedNonSimpleProperties}, properties typed {@code Object} are kept for
+         * autowire byName and skipped in {@link #resolveByType}
+         */
+        private PropertyAccessor[] buildAccessorTable(Class<?> beanClass) {
+            List<PropertyAccessor> accessors = new ArrayList<>();
+            for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(beanClass)) {
+                if (pd.getWriteMethod() != null && !isExcludedFromDependencyCheck(pd)
+                        && !BeanUtils.isSimpleProperty(pd.getPropertyType())) {
+                    accessors.add(new PropertyAccessor(pd));
+                }
+            }
+            return accessors.toArray(new PropertyAccessor[0]);
+        }
+    }
+
+    /**
+     * Setter of one property bound as a {@code (Object, Object)void} {@link MethodHandle}
+     */
+    static class PropertyAccessor {
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final String propertyName;
+        private final Class<?> propertyType;
+        private final Class<?> assignableType;
+        private final MethodParameter writeParameter;
+        private final MethodHandle setter;
+
+        PropertyAccessor(PropertyDescriptor pd) {
+            Method writeMethod = pd.getWriteMethod();
+            this.propertyName = pd.getName();
+            this.propertyType = pd.getPropertyType();
+            this.assignableType = ClassUtils.resolvePrimitiveIfNecessary(propertyType);
+            this.writeParameter = BeanUtils.getWriteMethodParameter(pd);
+            try {
+                ReflectionUtils.makeAccessible(writeMethod);
+                this.setter = MethodHandles.lookup().unreflect(writeMethod).asType(SETTER_TYPE);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Could not access setter " + writeMethod, ex);
+            }
+        }
+
+        void set(String beanName, RootBeanDefinition mbd, Object bean, Object value, TypeConverter converter) {
+            try {
+                Object converted = (assignableType.isInstance(value)
+                        ? value
+                        : converter.convertIfNecessary(value, propertyType, writeParameter));
+                setter.invokeExact(bean, converted);
+            } catch (Throwable ex) {
+                throw new BeanCreationException(mbd.getResourceDescription(), beanName,
+                        "Error setting property '" + propertyName + "'", ex);
+            }
+        }
+    }
+
+    /**
+     * Counterpart of the private {@code AutowireByTypeDependencyDescriptor}: the property name is no fallback qualifier
+     */
+    static class AutowireByTypeDependencyDescriptor extends DependencyDescriptor {
+        AutowireByTypeDependencyDescriptor(MethodParameter methodParameter, boolean eager) {
+            super(methodParameter, false, eager);
+        }
+
+        @Override
+        public String getDependencyName() {
+            return null;
+        }
+    }
+
+    static class Dep {
+    }
+
+    static class Properties1 {
+        private Dep dep1;
+
+        public Dep getDep1() {
+            return dep1;
+        }
+
+        public void setDep1(Dep dep1) {
+            this.dep1 = dep1;
+        }
+    }
+
+    static class Properties5 extends Properties1 {
+        private Dep dep5;
+
+        public Dep getDep5() {
+            return dep5;
+        }
+
+        public void setDep2(Dep dep2) {
+        }
+
+        public void setDep3(Dep dep3) {
+        }
+
+        public void setDep4(Dep dep4) {
+        }
+
+        public void setDep5(Dep dep5) {
+            this.dep5 = dep5;
+        }
+    }
+
+    static class Properties10 extends Properties5 {
+        public void setDep6(Dep dep6) {
+        }
+
+        public void setDep7(Dep dep7) {
+        }
+
+        public void setDep8(Dep dep8) {
+        }
+
+        public void setDep9(Dep dep9) {
+        }
+
+        public void setDep10(Dep dep10) {
+        }
+    }
+
+    static class Properties20 extends Properties10 {
+        public void setDep11(Dep dep11) {
+        }
+
+        public void setDep12(Dep dep12) {
+        }
+
+        public void setDep13(Dep dep13) {
+        }
+
+        public void setDep14(Dep dep14) {
+        }
+
+        public void setDep15(Dep dep15) {
+        }
+
+        public void setDep16(Dep dep16) {
+        }
+
+        public void setDep17(Dep dep17) {
+        }
+
+        public void setDep18(Dep dep18) {
+        }
+
+        public void setDep19(Dep dep19) {
+        }
+
+        public void setDep20(Dep dep20) {
+        }
+    }
+}
@@ -0,0 +1,529 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.SmartFactoryBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.ResolvableType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C05_CopyOnWriteChildFactories {
+    /**
+     * Tenant factories share definitions, merged definitions, type index and aliases of a frozen snapshot,
+     * but create their own singletons and can override single definitions
+     * @see DefaultListableBeanFactory#copyConfigurationFrom(org.springframework.beans.factory.config.ConfigurableBeanFactory)
+     * @see A01_BasicBeanFactory#hierarchicalBeanDefinition()
+     */
+    @Test
+    void tenantFactories() {
+        DefaultListableBeanFactory template = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition parentBd = new GenericBeanDefinition();
+        parentBd.setBeanClass(A01_BasicBeanFactory.Parent.class);
+        parentBd.setAutowireMode(GenericBeanDefinition.AUTOWIRE_BY_TYPE);
+        template.registerBeanDefinition("parent", parentBd);
+
+        GenericBeanDefinition childBd = new GenericBeanDefinition();
+        childBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        template.registerBeanDefinition("child", childBd);
+        template.registerAlias("child", "kid");
+
+        FrozenParentSnapshot snapshot = FrozenParentSnapshot.of(template);
+        TenantBeanFactory tenant1 = snapshot.newTenant();
+        TenantBeanFactory tenant2 = snapshot.newTenant();
+
+        GenericBeanDefinition overrideBd = new GenericBeanDefinition();
+        overrideBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        overrideBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        tenant2.registerBeanDefinition("child", overrideBd);
+
+        A01_BasicBeanFactory.Parent parent1 = tenant1.getBean(A01_BasicBeanFactory.Parent.class);
+        A01_BasicBeanFactory.Parent parent2 = tenant2.getBean(A01_BasicBeanFactory.Parent.class);
+
+        assertThat(parent1).isNotSameAs(parent2);
+        assertThat(parent1.getChild()).isSameAs(tenant1.getBean("kid"));
+        assertThat(parent2.getChild()).isNotSameAs(tenant2.getBean("kid"));
+        assertThat(tenant1.getMergedBeanDefinition("parent")).isSameAs(tenant2.getMergedBeanDefinition("parent"));
+        assertThat(tenant1.getMergedBeanDefinition("child")).isNotSameAs(tenant2.getMergedBeanDefinition("child"));
+        assertThat(tenant2.getBeanDefinitionNames()).containsExactly("parent", "child");
+        assertThat(template.containsSingleton("parent")).isFalse();
+    }
+
+    /**
+     * Overriding the root of {@code a <- b <- c} in a tenant changes the merged definition of the grandchild
+     */
+    @Test
+    void grandchildOfOverriddenParent() {
+        DefaultListableBeanFactory template = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition aBd = new GenericBeanDefinition();
+        aBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        aBd.setAbstract(true);
+        template.registerBeanDefinition("a", aBd);
+
+        GenericBeanDefinition bBd = new GenericBeanDefinition();
+        bBd.setParentName("a");
+        bBd.setAbstract(true);
+        template.registerBeanDefinition("b", bBd);
+
+        GenericBeanDefinition cBd = new GenericBeanDefinition();
+        cBd.setParentName("b");
+        template.registerBeanDefinition("c", cBd);
+
+        FrozenParentSnapshot snapshot = FrozenParentSnapshot.of(template);
+        TenantBeanFactory tenant1 = snapshot.newTenant();
+        TenantBeanFactory tenant2 = snapshot.newTenant();
+
+        GenericBeanDefinition overrideBd = new GenericBeanDefinition();
+        overrideBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        overrideBd.setAbstract(true);
+        overrideBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        tenant2.registerBeanDefinition("a", overrideBd);
+
+        assertThat(tenant1.getMergedBeanDefinition("c").isSingleton()).isTrue();
+        assertThat(tenant2.getMergedBeanDefinition("c").isPrototype()).isTrue();
+        assertThat(tenant2.getBean("c")).isNotSameAs(tenant2.getBean("c"));
+        assertThat(tenant1.getBean("c")).isSameAs(tenant1.getBean("c"));
+    }
+
+    /**
+     * Type lookups of a tenant follow the class and scope of an overridden ancestor, not the snapshot's type index
+     */
+    @Test
+    void typeLookupAfterAncestorOverride() {
+        DefaultListableBeanFactory template = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition aBd = new GenericBeanDefinition();
+        aBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        aBd.setAbstract(true);
+        template.registerBeanDefinition("a", aBd);
+
+        GenericBeanDefinition cBd = new GenericBeanDefinition();
+        cBd.setParentName("a");
+        template.registerBeanDefinition("c", cBd);
+
+        FrozenParentSnapshot snapshot = FrozenParentSnapshot.of(template);
+        TenantBeanFactory unchanged = snapshot.newTenant();
+        TenantBeanFactory retyped = snapshot.newTenant();
+        TenantBeanFactory rescoped = snapshot.newTenant();
+
+        GenericBeanDefinition parentBd = new GenericBeanDefinition();
+        parentBd.setBeanClass(A01_BasicBeanFactory.Parent.class);
+        parentBd.setAbstract(true);
+        retyped.registerBeanDefinition("a", parentBd);
+
+        GenericBeanDefinition prototypeBd = new GenericBeanDefinition();
+        prototypeBd.setBeanClass(A01_BasicBeanFactory.Child.class);
+        prototypeBd.setAbstract(true);
+        prototypeBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        rescoped.registerBeanDefinition("a", prototypeBd);
+
+        assertThat(unchanged.getBeanNamesForType(A01_BasicBeanFactory.Child.class)).containsExactly("c");
+        assertThat(retyped.getBeanNamesForType(A01_BasicBeanFactory.Child.class)).isEmpty();
+        assertThat(retyped.getBeanNamesForType(A01_BasicBeanFactory.Parent.class)).containsExactly("c");
+        assertThat(retyped.getBean(A01_BasicBeanFactory.Parent.class)).isSameAs(retyped.getBean("c"));
+        assertThat(rescoped.getBeanNamesForType(A01_BasicBeanFactory.Child.class, false, false)).isEmpty();
+        assertThat(rescoped.getBeanNamesForType(A01_BasicBeanFactory.Child.class, true, false)).containsExactly("c");
+    }
+
+    /**
+     * Spawning 10k tenants on top of a 1k bean snapshot vs. re-registering the definitions in each child.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void tenantSpawnBenchmark() {
+        C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                .beanCount(1_000)
+                .autowireFanOut(2)
+                .aliasChainLength(1)
+                .childFraction(0.2)
+                .initDestroyProcessor(true);
+        DefaultListableBeanFactory template = C01_LargeContextGenerator.LargeContextGenerator.generate(shape);
+        FrozenParentSnapshot snapshot = FrozenParentSnapshot.of(template);
+
+        int rebuilt = 100;
+        long start = System.nanoTime();
+        for (int i = 0; i < rebuilt; i++) {
+            DefaultListableBeanFactory child = new DefaultListableBeanFactory();
+            child.copyConfigurationFrom(template);
+            C01_LargeContextGenerator.LargeContextGenerator.register(child, shape);
+            for (String name : child.getBeanDefinitionNames()) {
+                child.getMergedBeanDefinition(name);
+            }
+        }
+        long rebuildNanos = (System.nanoTime() - start) / rebuilt;
+
+        int tenantCount = 10_000;
+        List<TenantBeanFactory> tenants = new ArrayList<>(tenantCount);
+        long heapBefore = C01_LargeContextGenerator.Bench.usedHeap();
+        start = System.nanoTime();
+        for (int i = 0; i < tenantCount; i++) {
+            TenantBeanFactory tenant = snapshot.newTenant();
+            GenericBeanDefinition overrideBd = new GenericBeanDefinition();
+            overrideBd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+            tenant.registerBeanDefinition("leaf0", overrideBd);
+            tenants.add(tenant);
+        }
+        long spawnNanos = (System.nanoTime() - start) / tenantCount;
+        long heapPerTenant = (C01_LargeContextGenerator.Bench.usedHeap() - heapBefore) / tenantCount;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            tenants.get(i).preInstantiateSingletons();
+        }
+        long instantiateNanos = (System.nanoTime() - start) / 100;
+
+        System.out.printf("rebuilt child %,d us, tenant spawn %,d us with %,d bytes each, tenant pre-instantiation %,d us%n",
+                rebuildNanos / 1000, spawnNanos / 1000, heapPerTenant, instantiateNanos / 1000);
+    }
+
+    /**
+     * Immutable view of a fully registered factory: definitions, merged definitions, aliases and a lazily filled
+     * type index, all shared by the {@link TenantBeanFactory}s created from it. The template factory gets its
+     * configuration frozen and must not be changed afterwards, it never creates beans of its own.
+     * <p>
+     * Post-processors are shared as well, so {@code BeanFactoryAware} ones such as
+     * {@code AutowiredAnnotationBeanPostProcessor} would resolve against the template, not the tenant.
+     */
+    static final class FrozenParentSnapshot {
+        private final DefaultListableBeanFactory template;
+        private final String[] beanNames;
+        private final Map<String, BeanDefinition> definitions;
+        private final Map<String, RootBeanDefinition> mergedDefinitions;
+        private final Map<String, String> aliases;
+        private final Map<String, String[]> aliasesByName;
+        private final Map<List<Object>, String[]> typeIndex = new ConcurrentHashMap<>();
+
+        private FrozenParentSnapshot(DefaultListableBeanFactory template) {
+            this.template = template;
+            this.beanNames = template.getBeanDefinitionNames();
+            Map<String, BeanDefinition> definitions = new HashMap<>(beanNames.length * 2);
+            Map<String, RootBeanDefinition> mergedDefinitions = new HashMap<>(beanNames.length * 2);
+            Map<String, String> aliases = new HashMap<>();
+            Map<String, String[]> aliasesByName = new HashMap<>();
+            for (String beanName : beanNames) {
+                definitions.put(beanName, template.getBeanDefinition(beanName));
+                mergedDefinitions.put(beanName, (RootBeanDefinition) template.getMergedBeanDefinition(beanName));
+                String[] beanAliases = template.getAliases(beanName);
+                if (beanAliases.length > 0) {
+                    aliasesByName.put(beanName, beanAliases);
+                    for (String alias : beanAliases) {
+                        aliases.put(alias, beanName);
+                    }
+                }
+            }
+            this.definitions = Collections.unmodifiableMap(definitions);
+            this.mergedDefinitions = Collections.unmodifiableMap(mergedDefinitions);
+            this.aliases = Collections.unmodifiableMap(aliases);
+            this.aliasesByName = Collections.unmodifiableMap(aliasesByName);
+        }
+
+        static FrozenParentSnapshot of(DefaultListableBeanFactory template) {
+            template.freezeConfiguration();
+            return new FrozenParentSnapshot(template);
+        }
+
+        TenantBeanFactory newTenant() {
+            return new TenantBeanFactory(this);
+        }
+
+        /**
+         * Type matching is answered by the template without eager initialization, the template never instantiates
+         */
+        String[] getBeanNamesForType(@Nullable Object type, boolean includeNonSingletons) {
+            return typeIndex.computeIfAbsent(Arrays.asList(type, includeNonSingletons), key -> (type instanceof ResolvableType
+                    ? template.getBeanNamesForType((ResolvableType) type, includeNonSingletons, false)
+                    : template.getBeanNamesForType((Class<?>) type, includeNonSingletons, false)));
+        }
+    }
+
+    /**
+     * Child factory reading definitions from a {@link FrozenParentSnapshot} until a definition of the same name
+     * is registered locally. Locally registered definitions are merged and cached by the tenant itself, as are
+     * snapshot definitions with an overridden ancestor.
+     */
+    static class TenantBeanFactory extends DefaultListableBeanFactory {
+        private final FrozenParentSnapshot snapshot;
+        @Nullable
+        private volatile String[] reparentedBeanNames;
+
+        TenantBeanFactory(FrozenParentSnapshot snapshot) {
+            this.snapshot = snapshot;
+            copyConfigurationFrom(snapshot.template);
+        }
+
+        @Override
+        public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) {
+            String[] reparented = (super.getBeanDefinitionCount() > 0 ? reparentedBeanNames() : null);
+            super.registerBeanDefinition(beanName, beanDefinition);
+            resetReparented(reparented);
+        }
+
+        @Override
+        public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            String[] reparented = (super.getBeanDefinitionCount() > 0 ? reparentedBeanNames() : null);
+            super.removeBeanDefinition(beanName);
+            resetReparented(reparented);
+        }
+
+        /**
+         * {@code resetBeanDefinition} only reaches local children, snapshot definitions merged by the tenant are
+         * dropped here
+         */
+        private void resetReparented(@Nullable String[] reparented) {
+            if (reparented != null) {
+                for (String name : reparented) {
+                    clearMergedBeanDefinition(name);
+                }
+            }
+            reparentedBeanNames = null;
+        }
+
+        @Override
+        public boolean containsBeanDefinition(String beanName) {
+            return snapshot.definitions.containsKey(beanName) || super.containsBeanDefinition(beanName);
+        }
+
+        @Override
+        public BeanDefinition getBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            if (hasLocalDefinition(beanName)) {
+                return super.getBeanDefinition(beanName);
+            }
+            BeanDefinition bd = snapshot.definitions.get(beanName);
+            if (bd == null) {
+                throw new NoSuchBeanDefinitionException(beanName);
+            }
+            return bd;
+        }
+
+        @Override
+        public String[] getBeanDefinitionNames() {
+            if (super.getBeanDefinitionCount() == 0) {
+                return snapshot.beanNames.clone();
+            }
+            Set<String> names = new LinkedHashSet<>(Arrays.asList(snapshot.beanNames));
+            Collections.addAll(names, super.getBeanDefinitionNames());
+            return StringUtils.toStringArray(names);
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            int count = snapshot.beanNames.length;
+            for (String beanName : super.getBeanDefinitionNames()) {
+                if (!snapshot.definitions.containsKey(beanName)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        protected RootBeanDefinition getMergedLocalBeanDefinition(String beanName) throws BeansException {
+            if (hasLocalDefinition(beanName)) {
+                return super.getMergedLocalBeanDefinition(beanName);
+            }
+            RootBeanDefinition mbd = snapshot.mergedDefinitions.get(beanName);
+            if (mbd == null || isParentOverridden(beanName)) {
+                return super.getMergedLocalBeanDefinition(beanName);
+            }
+            return mbd;
+        }
+
+        @Override
+        public String canonicalName(String name) {
+            String canonicalName = super.canonicalName(name);
+            if (canonicalName.equals(name)) {
+                String shared = snapshot.aliases.get(name);
+                if (shared != null) {
+                    return shared;
+                }
+            }
+            return canonicalName;
+        }
+
+        @Override
+        public boolean isAlias(String name) {
+            return snapshot.aliases.containsKey(name) || super.isAlias(name);
+        }
+
+        @Override
+        public String[] getAliases(String name) {
+            String[] shared = snapshot.aliasesByName.get(transformedBeanName(name));
+            String[] local = super.getAliases(name);
+            if (shared == null) {
+                return local;
+            }
+            Set<String> aliases = new LinkedHashSet<>(Arrays.asList(local));
+            for (String alias : shared) {
+                if (!alias.equals(name)) {
+                    aliases.add(alias);
+                }
+            }
+            return StringUtils.toStringArray(aliases);
+        }
+
+        @Override
+        public String[] getBeanNamesForType(@Nullable Class<?> type, boolean includeNonSingletons, boolean allowEagerInit) {
+            return merge(snapshot.getBeanNamesForType(type, includeNonSingletons),
+                    super.getBeanNamesForType(type, includeNonSingletons, allowEagerInit),
+                    ResolvableType.forRawClass(type), includeNonSingletons);
+        }
+
+        @Override
+        public String[] getBeanNamesForType(ResolvableType type, boolean includeNonSingletons, boolean allowEagerInit) {
+            Class<?> resolved = type.resolve();
+            if (resolved != null && !type.hasGenerics()) {
+                return getBeanNamesForType(resolved, includeNonSingletons, allowEagerInit);
+            }
+            return merge(snapshot.getBeanNamesForType(type, includeNonSingletons),
+                    super.getBeanNamesForType(type, includeNonSingletons, allowEagerInit), type, includeNonSingletons);
+        }
+
+        @Override
+        public String[] getBeanNamesForAnnotation(Class<? extends Annotation> annotationType) {
+            List<String> shared = new ArrayList<>();
+            for (String beanName : snapshot.beanNames) {
+                if (!snapshot.definitions.get(beanName).isAbstract()
+                        && findAnnotationOnBean(beanName, annotationType) != null) {
+                    shared.add(beanName);
+                }
+            }
+            return merge(StringUtils.toStringArray(shared), super.getBeanNamesForAnnotation(annotationType));
+        }
+
+        /**
+         * Same as {@link DefaultListableBeanFactory#preInstantiateSingletons()}, which only sees local definitions
+         */
+        @Override
+        public void preInstantiateSingletons() throws BeansException {
+            List<String> beanNames = Arrays.asList(getBeanDefinitionNames());
+            for (String beanName : beanNames) {
+                RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+                if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+                    if (isFactoryBean(beanName)) {
+                        Object bean = getBean(FACTORY_BEAN_PREFIX + beanName);
+                        if (bean instanceof SmartFactoryBean && ((SmartFactoryBean<?>) bean).isEagerInit()) {
+                            getBean(beanName);
+                        }
+                    } else {
+                        getBean(beanName);
+                    }
+                }
+            }
+            for (String beanName : beanNames) {
+                Object singletonInstance = getSingleton(beanName);
+                if (singletonInstance instanceof SmartInitializingSingleton) {
+                    ((SmartInitializingSingleton) singletonInstance).afterSingletonsInstantiated();
+                }
+            }
+        }
+
+        private boolean hasLocalDefinition(String beanName) {
+            return super.getBeanDefinitionCount() > 0 && super.containsBeanDefinition(beanName);
+        }
+
+        /**
+         * Walks the whole parent chain, any overridden ancestor changes the merged definition
+         */
+        private boolean isParentOverridden(String beanName) {
+            if (super.getBeanDefinitionCount() == 0) {
+                return false;
+            }
+            String name = beanName;
+            BeanDefinition bd = snapshot.definitions.get(name);
+            while (bd != null && bd.getParentName() != null) {
+                String parentName = transformedBeanName(bd.getParentName());
+                if (parentName.equals(name)) {
+                    // parent of the same name lives in a parent factory
+                    return false;
+                }
+                if (hasLocalDefinition(parentName)) {
+                    return true;
+                }
+                name = parentName;
+                bd = snapshot.definitions.get(name);
+            }
+            return false;
+        }
+
+        /**
+         * Snapshot definitions with an overridden ancestor, the snapshot's type index no longer applies to them
+         */
+        private String[] reparentedBeanNames() {
+            String[] names = reparentedBeanNames;
+            if (names == null) {
+                List<String> reparented = new ArrayList<>();
+                for (String beanName : snapshot.beanNames) {
+                    if (!hasLocalDefinition(beanName) && isParentOverridden(beanName)) {
+                        reparented.add(beanName);
+                    }
+                }
+                names = StringUtils.toStringArray(reparented);
+                reparentedBeanNames = names;
+            }
+            return names;
+        }
+
+        /**
+         * Type lookup merge: snapshot names with an overridden ancestor are matched against the tenant's merged
+         * definition instead, as the template does it, without eager initialization
+         */
+        private String[] merge(String[] shared, String[] local, ResolvableType type, boolean includeNonSingletons) {
+            if (super.getBeanDefinitionCount() == 0) {
+                return merge(shared, local);
+            }
+            String[] reparented = reparentedBeanNames();
+            if (reparented.length == 0) {
+                return merge(shared, local);
+            }
+            Set<String> names = new LinkedHashSet<>(shared.length + local.length);
+            for (String beanName : shared) {
+                if (!hasLocalDefinition(beanName) && !isParentOverridden(beanName)) {
+                    names.add(beanName);
+                }
+            }
+            for (String beanName : reparented) {
+                RootBeanDefinition mbd = getMergedLocalBeanDefinition(beanName);
+                if (!mbd.isAbstract() && (includeNonSingletons || mbd.isSingleton())
+                        && isTypeMatch(beanName, type, false)) {
+                    names.add(beanName);
+                }
+            }
+            Collections.addAll(names, local);
+            return StringUtils.toStringArray(names);
+        }
+
+        private String[] merge(String[] shared, String[] local) {
+            if (local.length == 0 && super.getBeanDefinitionCount() == 0) {
+                return shared;
+            }
+            Set<String> names = new LinkedHashSet<>(shared.length + local.length);
+            for (String beanName : shared) {
+                if (!hasLocalDefinition(beanName)) {
+                    names.add(beanName);
+                }
+            }
+            Collections.addAll(names, local);
+            return StringUtils.toStringArray(names);
+        }
+    }
+}
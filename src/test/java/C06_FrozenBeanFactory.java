@@ -0,0 +1,516 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.BeanNotOfRequiredTypeException;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class C06_FrozenBeanFactory {
+    /**
+     * After {@link FrozenBeanFactory#freeze()} names, aliases, definitions and singletons are served from
+     * perfect-hash tables and the registry rejects changes
+     * @see DefaultListableBeanFactory#freezeConfiguration()
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#doGetBean(String, Class, Object[], boolean)
+     */
+    @Test
+    void frozenLookups() {
+        FrozenBeanFactory bf = new FrozenBeanFactory();
+
+        GenericBeanDefinition bd1 = new GenericBeanDefinition();
+        bd1.setBeanClass(A01_BasicBeanFactory.Bean1.class);
+        bf.registerBeanDefinition("bean1", bd1);
+        bf.registerAlias("bean1", "alias");
+        bf.registerAlias("alias", "alias2");
+
+        GenericBeanDefinition bd2 = new GenericBeanDefinition();
+        bd2.setBeanClass(A01_BasicBeanFactory.Bean1.class);
+        bd2.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("bean2", bd2);
+
+        bf.freeze();
+        bf.preInstantiateSingletons();
+
+        A01_BasicBeanFactory.Bean1 bean1 = bf.getBean("bean1", A01_BasicBeanFactory.Bean1.class);
+        assertThat(bf.getBean("alias2")).isSameAs(bean1);
+        assertThat(bf.getBean("bean2")).isNotSameAs(bf.getBean("bean2"));
+        assertThat(bf.canonicalName("alias2")).isEqualTo("bean1");
+        assertThat(bf.getBeanDefinition("bean2")).isSameAs(bd2);
+        assertThatThrownBy(() -> bf.getBean("bean1", String.class)).isInstanceOf(BeanNotOfRequiredTypeException.class);
+        assertThatThrownBy(() -> bf.getBean("missing")).isInstanceOf(NoSuchBeanDefinitionException.class);
+        assertThatThrownBy(() -> bf.registerBeanDefinition("bean3", new GenericBeanDefinition()))
+                .isInstanceOf(BeanDefinitionStoreException.class);
+        assertThatThrownBy(() -> bf.registerAlias("bean2", "alias3")).isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Every key of the table lands in its own slot, unknown keys are rejected
+     * @see PerfectHashIndex#of(String[])
+     */
+    @Test
+    void perfectHashIndex() {
+        String[] keys = new String[10_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = C01_LargeContextGenerator.LargeContextGenerator.nodeName(i);
+        }
+        PerfectHashIndex index = PerfectHashIndex.of(keys);
+
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(index.indexOf(keys[i])).isEqualTo(i);
+            slots.add(index.indexOf(keys[i]));
+        }
+        assertThat(slots).hasSize(keys.length);
+        assertThat(index.indexOf("node-1")).isEqualTo(-1);
+        assertThat(PerfectHashIndex.of(new String[] { "Aa", "BB" }).indexOf("BB")).isEqualTo(1);
+    }
+
+    /**
+     * {@code getBean} latency by name, alias and name with type, before and after freezing.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void lookupBenchmark() {
+        for (int beanCount : new int[] { 1_000, 10_000, 100_000 }) {
+            C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                    .beanCount(beanCount)
+                    .aliasChainLength(2);
+            FrozenBeanFactory bf = new FrozenBeanFactory();
+            C01_LargeContextGenerator.LargeContextGenerator.register(bf, shape);
+            bf.preInstantiateSingletons();
+
+            Random random = new Random(shape.getSeed());
+            String[] names = new String[1024];
+            String[] aliases = new String[1024];
+            for (int i = 0; i < names.length; i++) {
+                int index = random.nextInt(beanCount);
+                names[i] = C01_LargeContextGenerator.LargeContextGenerator.nodeName(index);
+                aliases[i] = C01_LargeContextGenerator.LargeContextGenerator.aliasName(index, 2);
+            }
+
+            long byName = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> bf.getBean(names[i & 1023]));
+            long byAlias = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> bf.getBean(aliases[i & 1023]));
+            long typed = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                    i -> bf.getBean(names[i & 1023], C01_LargeContextGenerator.Node0.class));
+
+            long start = System.nanoTime();
+            bf.freeze();
+            long freezeNanos = System.nanoTime() - start;
+
+            long frozenByName = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> bf.getBean(names[i & 1023]));
+            long frozenByAlias = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> bf.getBean(aliases[i & 1023]));
+            long frozenTyped = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                    i -> bf.getBean(names[i & 1023], C01_LargeContextGenerator.Node0.class));
+
+            System.out.printf("%,d beans (freeze %,d ms): by name %d -> %d ns, by alias %d -> %d ns, typed %d -> %d ns%n",
+                    beanCount, freezeNanos / 1_000_000, byName, frozenByName, byAlias, frozenByAlias, typed, frozenTyped);
+        }
+    }
+
+    /**
+     * Minimal perfect hash over a fixed set of strings ("hash, displace and compress" without the compression):
+     * keys are grouped into buckets by a first hash, then, largest bucket first, each bucket searches for a seed
+     * that sends all its keys to free slots. Lookups cost two hashes and one {@code equals}.
+     */
+    static final class PerfectHashIndex {
+        private final String[] keys;
+        private final int[] slotToIndex;
+        private final int[] seeds;
+        private final boolean hashChars;
+
+        private PerfectHashIndex(String[] keys, int[] slotToIndex, int[] seeds, boolean hashChars) {
+            this.keys = keys;
+            this.slotToIndex = slotToIndex;
+            this.seeds = seeds;
+            this.hashChars = hashChars;
+        }
+
+        /**
+         * @param keys distinct keys, {@link #indexOf(String)} returns their position in this array
+         */
+        static PerfectHashIndex of(String[] keys) {
+            // String.hashCode is cached but distinct keys may share it, the character hash separates those
+            Set<Integer> hashCodes = new HashSet<>(keys.length * 2);
+            boolean hashChars = false;
+            for (String key : keys) {
+                if (!hashCodes.add(key.hashCode())) {
+                    hashChars = true;
+                    break;
+                }
+            }
+
+            int size = Math.max(keys.length, 1);
+            List<List<Integer>> buckets = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                buckets.add(new ArrayList<>(2));
+            }
+            for (int i = 0; i < keys.length; i++) {
+                buckets.get(slot(hash(keys[i], 0, hashChars), size)).add(i);
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+            String[] slotKeys = new String[size];
+            int[] slotToIndex = new int[size];
+            Arrays.fill(slotToIndex, -1);
+            int[] seeds = new int[size];
+            int[] tried = new int[8];
+            int next = 0;
+            for (; next < size && buckets.get(order[next]).size() > 1; next++) {
+                List<Integer> bucket = buckets.get(order[next]);
+                if (tried.length < bucket.size()) {
+                    tried = new int[bucket.size()];
+                }
+                for (int seed = 1; ; seed++) {
+                    int placed = 0;
+                    for (; placed < bucket.size(); placed++) {
+                        int slot = slot(hash(keys[bucket.get(placed)], seed, hashChars), size);
+                        if (slotKeys[slot] != null || contains(tried, placed, slot)) {
+                            break;
+                        }
+                        tried[placed] = slot;
+                    }
+                    if (placed == bucket.size()) {
+                        for (int i = 0; i < placed; i++) {
+                            slotKeys[tried[i]] = keys[bucket.get(i)];
+                            slotToIndex[tried[i]] = bucket.get(i);
+                        }
+                        seeds[order[next]] = seed;
+                        break;
+                    }
+                }
+            }
+            // single-key buckets go straight to a free slot, stored as a negative seed
+            int free = 0;
+            for (; next < size && buckets.get(order[next]).size() == 1; next++) {
+                while (slotKeys[free] != null) {
+                    free++;
+                }
+                int index = buckets.get(order[next]).get(0);
+                slotKeys[free] = keys[index];
+                slotToIndex[free] = index;
+                seeds[order[next]] = -free - 1;
+            }
+            return new PerfectHashIndex(slotKeys, slotToIndex, seeds, hashChars);
+        }
+
+        /**
+         * @return position of the key in the array the index was built from, -1 for unknown keys
+         */
+        int indexOf(String key) {
+            int size = keys.length;
+            int seed = seeds[slot(hash(key, 0, hashChars), size)];
+            int slot = seed < 0 ? -seed - 1 : slot(hash(key, seed, hashChars), size);
+            return key.equals(keys[slot]) ? slotToIndex[slot] : -1;
+        }
+
+        private static int hash(String key, int seed, boolean hashChars) {
+            int h;
+            if (hashChars) {
+                h = 0x811C9DC5 ^ seed;
+                for (int i = 0; i < key.length(); i++) {
+                    h = (h ^ key.charAt(i)) * 0x01000193;
+                }
+            } else {
+                h = key.hashCode() ^ (seed * 0x9E3779B9);
+            }
+            // murmur3 finalizer
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+            return h;
+        }
+
+        private static int slot(int hash, int size) {
+            return (hash & 0x7FFFFFFF) % size;
+        }
+
+        private static boolean contains(int[] slots, int length, int slot) {
+            for (int i = 0; i < length; i++) {
+                if (slots[i] == slot) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Factory that can be frozen into a read-optimized mode. {@link #freeze()} compiles bean names and aliases into
+     * one {@link PerfectHashIndex} over dense arrays of canonical names, definitions and merged definitions, and
+     * remembers singletons as they are handed out. From then on registrations are rejected.
+     */
+    static class FrozenBeanFactory extends DefaultListableBeanFactory {
+        @Nullable
+        private volatile FrozenTables tables;
+
+        /**
+         * Freezes the configuration and compiles the lookup tables. Singletons created later are added to the
+         * tables on their first lookup.
+         */
+        void freeze() {
+            freezeConfiguration();
+            List<String> keys = new ArrayList<>();
+            List<Integer> entries = new ArrayList<>();
+            String[] beanNames = getBeanDefinitionNames();
+            for (int i = 0; i < beanNames.length; i++) {
+                keys.add(beanNames[i]);
+                entries.add(i);
+                for (String alias : getAliases(beanNames[i])) {
+                    keys.add(alias);
+                    entries.add(i);
+                }
+            }
+            BeanDefinition[] definitions = new BeanDefinition[beanNames.length];
+            RootBeanDefinition[] mergedDefinitions = new RootBeanDefinition[beanNames.length];
+            Object[] singletons = new Object[beanNames.length];
+            for (int i = 0; i < beanNames.length; i++) {
+                definitions[i] = super.getBeanDefinition(beanNames[i]);
+                mergedDefinitions[i] = super.getMergedLocalBeanDefinition(beanNames[i]);
+                singletons[i] = exposedSingleton(beanNames[i]);
+            }
+            int[] keyToEntry = entries.stream().mapToInt(Integer::intValue).toArray();
+            this.tables = new FrozenTables(PerfectHashIndex.of(keys.toArray(new String[0])), keyToEntry,
+                    beanNames, definitions, mergedDefinitions, singletons);
+        }
+
+        boolean isFrozen() {
+            return tables != null;
+        }
+
+        @Override
+        public Object getBean(String name) throws BeansException {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(name);
+                if (entry >= 0) {
+                    Object singleton = tables.singletons.get(entry);
+                    if (singleton != null) {
+                        return singleton;
+                    }
+                    String beanName = tables.beanNames[entry];
+                    Object bean = super.getBean(beanName);
+                    if (tables.remember(entry, bean, exposedSingleton(beanName)) && getSingleton(beanName, false) != bean) {
+                        // destroyed meanwhile, destroySingleton may have cleared the entry before it was remembered
+                        tables.forget(entry, bean);
+                    }
+                    return bean;
+                }
+            }
+            return super.getBean(name);
+        }
+
+        @Override
+        public <T> T getBean(String name, Class<T> requiredType) throws BeansException {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(name);
+                if (entry >= 0) {
+                    Object singleton = tables.singletons.get(entry);
+                    if (singleton != null && requiredType.isInstance(singleton)) {
+                        return requiredType.cast(singleton);
+                    }
+                }
+            }
+            return super.getBean(name, requiredType);
+        }
+
+        @Override
+        public String canonicalName(String name) {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(name);
+                if (entry >= 0) {
+                    return tables.beanNames[entry];
+                }
+            }
+            return super.canonicalName(name);
+        }
+
+        @Override
+        public boolean containsBeanDefinition(String beanName) {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(beanName);
+                return entry >= 0 && tables.beanNames[entry].equals(beanName);
+            }
+            return super.containsBeanDefinition(beanName);
+        }
+
+        @Override
+        public BeanDefinition getBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(beanName);
+                if (entry >= 0 && tables.beanNames[entry].equals(beanName)) {
+                    return tables.definitions[entry];
+                }
+            }
+            return super.getBeanDefinition(beanName);
+        }
+
+        @Override
+        protected RootBeanDefinition getMergedLocalBeanDefinition(String beanName) throws BeansException {
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(beanName);
+                if (entry >= 0 && tables.beanNames[entry].equals(beanName)) {
+                    return tables.mergedDefinitions.get(entry);
+                }
+            }
+            return super.getMergedLocalBeanDefinition(beanName);
+        }
+
+        /**
+         * Keeps the table entry pointing at the definition merged for creation instead of the pre-freeze merge
+         */
+        @Override
+        protected void clearMergedBeanDefinition(String beanName) {
+            super.clearMergedBeanDefinition(beanName);
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                int entry = tables.entryOf(beanName);
+                if (entry >= 0) {
+                    tables.mergedDefinitions.set(entry, super.getMergedLocalBeanDefinition(beanName));
+                }
+            }
+        }
+
+        @Override
+        public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException {
+            if (tables != null) {
+                throw new BeanDefinitionStoreException(beanDefinition.getResourceDescription(), beanName,
+                        "Cannot register bean definition for bean '" + beanName + "': bean factory is frozen");
+            }
+            super.registerBeanDefinition(beanName, beanDefinition);
+        }
+
+        @Override
+        public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            if (tables != null) {
+                throw new IllegalStateException("Cannot remove bean definition '" + beanName + "': bean factory is frozen");
+            }
+            super.removeBeanDefinition(beanName);
+        }
+
+        @Override
+        public void registerAlias(String name, String alias) {
+            if (tables != null) {
+                throw new IllegalStateException("Cannot register alias '" + alias + "' for name '" + name
+                        + "': bean factory is frozen");
+            }
+            super.registerAlias(name, alias);
+        }
+
+        @Override
+        public void registerSingleton(String beanName, Object singletonObject) throws IllegalStateException {
+            if (tables != null) {
+                throw new IllegalStateException("Could not register object [" + singletonObject + "] under bean name '"
+                        + beanName + "': bean factory is frozen");
+            }
+            super.registerSingleton(beanName, singletonObject);
+        }
+
+        /**
+         * Clears the entry before destruction, so that lookups stop serving the bean, and again afterwards for a
+         * concurrent {@code getBean} that remembered it in between
+         */
+        @Override
+        public void destroySingleton(String beanName) {
+            FrozenTables tables = this.tables;
+            int entry = tables != null ? tables.entryOf(beanName) : -1;
+            if (entry >= 0) {
+                tables.singletons.set(entry, null);
+            }
+            super.destroySingleton(beanName);
+            if (entry >= 0) {
+                tables.singletons.set(entry, null);
+            }
+        }
+
+        @Override
+        public void destroySingletons() {
+            super.destroySingletons();
+            FrozenTables tables = this.tables;
+            if (tables != null) {
+                for (int i = 0; i < tables.singletons.length(); i++) {
+                    tables.singletons.set(i, null);
+                }
+            }
+        }
+
+        /**
+         * The fully initialized singleton as {@code getBean} exposes it, {@code null} for factory beans,
+         * whose product is looked up separately, and for singletons still in creation
+         */
+        @Nullable
+        private Object exposedSingleton(String beanName) {
+            Object singleton = getSingleton(beanName, false);
+            return singleton instanceof FactoryBean || isCurrentlyInCreation(beanName) ? null : singleton;
+        }
+
+        private static final class FrozenTables {
+            private final PerfectHashIndex index;
+            private final int[] keyToEntry;
+            private final String[] beanNames;
+            private final BeanDefinition[] definitions;
+            private final AtomicReferenceArray<RootBeanDefinition> mergedDefinitions;
+            private final AtomicReferenceArray<Object> singletons;
+
+            FrozenTables(PerfectHashIndex index, int[] keyToEntry, String[] beanNames, BeanDefinition[] definitions,
+                         RootBeanDefinition[] mergedDefinitions, Object[] singletons) {
+                this.index = index;
+                this.keyToEntry = keyToEntry;
+                this.beanNames = beanNames;
+                this.definitions = definitions;
+                this.mergedDefinitions = new AtomicReferenceArray<>(mergedDefinitions);
+                this.singletons = new AtomicReferenceArray<>(singletons);
+            }
+
+            /**
+             * Entry of a bean name or alias, -1 for unknown names and {@code &}-prefixed factory bean references
+             */
+            int entryOf(String name) {
+                if (BeanFactoryUtils.isFactoryDereference(name)) {
+                    return -1;
+                }
+                int key = index.indexOf(name);
+                return key >= 0 ? keyToEntry[key] : -1;
+            }
+
+            /**
+             * @return {@code true} if the singleton went into the empty entry
+             */
+            boolean remember(int entry, Object bean, @Nullable Object singleton) {
+                return singleton != null && singleton == bean && singletons.compareAndSet(entry, null, singleton);
+            }
+
+            void forget(int entry, Object singleton) {
+                singletons.compareAndSet(entry, singleton, null);
+            }
+        }
+    }
+}
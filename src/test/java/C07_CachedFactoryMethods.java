@@ -0,0 +1,405 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.InjectionPoint;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ConfigurationClassPostProcessor;
+import org.springframework.context.annotation.Scope;
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C07_CachedFactoryMethods {
+    /**
+     * Static factory method, see {@link A01_BasicBeanFactory#staticFactoryMethod()}. Only the first creation
+     * resolves the method, later ones reuse the plan.
+     * @see org.springframework.beans.factory.support.ConstructorResolver#instantiateUsingFactoryMethod(String, RootBeanDefinition, Object[])
+     */
+    @Test
+    void staticFactoryMethod() {
+        CachedFactoryMethodBeanFactory bf = new CachedFactoryMethodBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(A01_BasicBeanFactory.Bean1.class);
+        bd.setFactoryMethodName("create");
+        bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("bean1", bd);
+
+        A01_BasicBeanFactory.Bean1 bean1 = bf.getBean(A01_BasicBeanFactory.Bean1.class);
+        A01_BasicBeanFactory.Bean1 bean2 = bf.getBean(A01_BasicBeanFactory.Bean1.class);
+
+        assertThat(bean1).isNotSameAs(bean2);
+        assertThat(bf.getFactoryPlanCount()).isEqualTo(1);
+        assertThat(bf.getPlannedInstantiations()).isEqualTo(1);
+    }
+
+    /**
+     * Instance factory method with an autowired argument, invoked through a handle bound to the singleton factory bean.
+     * A factory method returning {@code null} still yields a null bean.
+     */
+    @Test
+    void instanceFactoryMethod() {
+        CachedFactoryMethodBeanFactory bf = new CachedFactoryMethodBeanFactory();
+
+        GenericBeanDefinition leafBd = new GenericBeanDefinition();
+        leafBd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        bf.registerBeanDefinition("leaf", leafBd);
+
+        GenericBeanDefinition factoryBd = new GenericBeanDefinition();
+        factoryBd.setBeanClass(ProductFactory.class);
+        bf.registerBeanDefinition("factory", factoryBd);
+
+        GenericBeanDefinition productBd = new GenericBeanDefinition();
+        productBd.setFactoryBeanName("factory");
+        productBd.setFactoryMethodName("create");
+        productBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+        productBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("product", productBd);
+
+        GenericBeanDefinition nothingBd = new GenericBeanDefinition();
+        nothingBd.setFactoryBeanName("factory");
+        nothingBd.setFactoryMethodName("nothing");
+        nothingBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bf.registerBeanDefinition("nothing", nothingBd);
+
+        Product product1 = bf.getBean("product", Product.class);
+        Product product2 = bf.getBean("product", Product.class);
+
+        assertThat(product2).isNotSameAs(product1);
+        assertThat(product2.getLeaf()).isSameAs(bf.getBean("leaf"));
+        assertThat(product2.getSerial()).isEqualTo(2);
+        assertThat(bf.getDependentBeans("leaf")).contains("product");
+        assertThat(bf.getDependentBeans("factory")).contains("product");
+
+        bf.getBean("nothing");
+        assertThat(bf.getBean("nothing").equals(null)).isTrue();
+        assertThat(bf.getPlannedInstantiations()).isEqualTo(2);
+    }
+
+    /**
+     * {@code @Bean} methods of an enhanced {@code @Configuration} keep going through the instantiation strategy,
+     * so inter-bean method calls still resolve to the container's singleton,
+     * see {@link B07_ConfigurationClassPostProcessor#test()}
+     */
+    @Test
+    void configurationClass() {
+        CachedFactoryMethodBeanFactory bf = new CachedFactoryMethodBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(Config.class);
+        bf.registerBeanDefinition("config", bd);
+
+        new ConfigurationClassPostProcessor().postProcessBeanFactory(bf);
+
+        Product product1 = bf.getBean("product", Product.class);
+        Product product2 = bf.getBean("product", Product.class);
+
+        assertThat(product2).isNotSameAs(product1);
+        assertThat(product2.getLeaf()).isSameAs(bf.getBean("leaf"));
+        assertThat(bf.getPlannedInstantiations()).isEqualTo(1);
+    }
+
+    /**
+     * Prototype creation through factory methods, plain factory against cached plans.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void prototypeBenchmark() {
+        for (String kind : new String[] { "static", "instance", "@Bean" }) {
+            long plain = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                    productFactory(new DefaultListableBeanFactory(), kind));
+            long cached = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                    productFactory(new CachedFactoryMethodBeanFactory(), kind));
+            System.out.printf("%s factory method: %d -> %d ns/bean%n", kind, plain, cached);
+        }
+    }
+
+    private static C01_LargeContextGenerator.Bench.Op productFactory(DefaultListableBeanFactory bf, String kind) {
+        if (kind.equals("@Bean")) {
+            GenericBeanDefinition configBd = new GenericBeanDefinition();
+            configBd.setBeanClass(Config.class);
+            bf.registerBeanDefinition("config", configBd);
+            new ConfigurationClassPostProcessor().postProcessBeanFactory(bf);
+        } else {
+            GenericBeanDefinition leafBd = new GenericBeanDefinition();
+            leafBd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+            bf.registerBeanDefinition("leaf", leafBd);
+
+            GenericBeanDefinition productBd = new GenericBeanDefinition();
+            if (kind.equals("static")) {
+                productBd.setBeanClass(Product.class);
+            } else {
+                GenericBeanDefinition factoryBd = new GenericBeanDefinition();
+                factoryBd.setBeanClass(ProductFactory.class);
+                bf.registerBeanDefinition("factory", factoryBd);
+                productBd.setFactoryBeanName("factory");
+                productBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+            }
+            productBd.setFactoryMethodName("create");
+            productBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+            bf.registerBeanDefinition("product", productBd);
+        }
+        return i -> bf.getBean("product");
+    }
+
+    /**
+     * Factory that resolves a factory method once and then creates beans from a cached {@link FactoryMethodPlan}.
+     * Plans are keyed by bean name and only valid for the merged definition they were built from.
+     * Explicit arguments and configured constructor-arg values keep the regular resolution.
+     */
+    static class CachedFactoryMethodBeanFactory extends DefaultListableBeanFactory {
+        @Nullable
+        private static final Class<?> ENHANCED_CONFIGURATION = resolveEnhancedConfiguration();
+
+        private static final Supplier<Object> NULL_BEAN = nullBeanFactory();
+
+        private final Map<String, FactoryMethodPlan> factoryMethodPlans = new ConcurrentHashMap<>();
+
+        private final LongAdder plannedInstantiations = new LongAdder();
+
+        @Override
+        protected BeanWrapper instantiateUsingFactoryMethod(String beanName, RootBeanDefinition mbd, @Nullable Object[] explicitArgs) {
+            if (explicitArgs != null || mbd.hasConstructorArgumentValues()) {
+                return super.instantiateUsingFactoryMethod(beanName, mbd, explicitArgs);
+            }
+            FactoryMethodPlan plan = factoryMethodPlans.get(beanName);
+            if (plan == null || plan.mbd != mbd) {
+                BeanWrapper bw = super.instantiateUsingFactoryMethod(beanName, mbd, null);
+                plan = FactoryMethodPlan.of(mbd);
+                if (plan != null) {
+                    factoryMethodPlans.put(beanName, plan);
+                }
+                return bw;
+            }
+            plannedInstantiations.increment();
+            Object factoryBean = null;
+            if (plan.factoryBeanName != null) {
+                factoryBean = getBean(plan.factoryBeanName);
+                registerDependentBean(plan.factoryBeanName, beanName);
+            }
+            Object[] args = resolveArguments(beanName, plan);
+            Object instance;
+            try {
+                if (factoryBean != null && ENHANCED_CONFIGURATION != null && ENHANCED_CONFIGURATION.isInstance(factoryBean)) {
+                    // the enhanced @Bean method only calls super while it is the currently invoked factory method
+                    instance = getInstantiationStrategy().instantiate(mbd, beanName, this, factoryBean, plan.method, args);
+                } else {
+                    instance = plan.invoke(factoryBean, args);
+                }
+            } catch (Throwable ex) {
+                throw new BeanCreationException(mbd.getResourceDescription(), beanName,
+                        "Bean instantiation via factory method failed", ex);
+            }
+            BeanWrapperImpl bw = new BeanWrapperImpl(instance != null ? instance : NULL_BEAN.get());
+            initBeanWrapper(bw);
+            return bw;
+        }
+
+        private Object[] resolveArguments(String beanName, FactoryMethodPlan plan) {
+            Object[] args = new Object[plan.parameters.length];
+            if (args.length == 0) {
+                return args;
+            }
+            Set<String> autowiredBeanNames = new LinkedHashSet<>(args.length * 2);
+            for (int i = 0; i < args.length; i++) {
+                args[i] = resolveDependency(new DependencyDescriptor(plan.parameters[i], true), beanName, autowiredBeanNames, null);
+            }
+            for (String autowiredBeanName : autowiredBeanNames) {
+                registerDependentBean(autowiredBeanName, beanName);
+            }
+            return args;
+        }
+
+        @Override
+        protected void resetBeanDefinition(String beanName) {
+            factoryMethodPlans.remove(beanName);
+            super.resetBeanDefinition(beanName);
+        }
+
+        int getFactoryPlanCount() {
+            return factoryMethodPlans.size();
+        }
+
+        long getPlannedInstantiations() {
+            return plannedInstantiations.sum();
+        }
+
+        @Nullable
+        private static Class<?> resolveEnhancedConfiguration() {
+            try {
+                return ClassUtils.forName("org.springframework.context.annotation.ConfigurationClassEnhancer$EnhancedConfiguration",
+                        CachedFactoryMethodBeanFactory.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError ex) {
+                return null;
+            }
+        }
+
+        /**
+         * {@code NullBean} is package private, the instantiation strategy creates the same placeholder for factory
+         * methods returning {@code null}
+         */
+        private static Supplier<Object> nullBeanFactory() {
+            Class<?> nullBeanClass = ClassUtils.resolveClassName("org.springframework.beans.factory.support.NullBean",
+                    CachedFactoryMethodBeanFactory.class.getClassLoader());
+            Constructor<?> constructor = ClassUtils.getConstructorIfAvailable(nullBeanClass);
+            return () -> BeanUtils.instantiateClass(constructor);
+        }
+    }
+
+    /**
+     * Resolved factory method with its argument descriptors and an invoker of type {@code (Object, Object[])Object}.
+     * Instance factory methods also keep the invoker bound to the last factory bean instance.
+     */
+    static final class FactoryMethodPlan {
+        private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+        final RootBeanDefinition mbd;
+        final Method method;
+        @Nullable
+        final String factoryBeanName;
+        final MethodParameter[] parameters;
+        private final MethodHandle invoker;
+        @Nullable
+        private volatile BoundInvoker bound;
+
+        private FactoryMethodPlan(RootBeanDefinition mbd, Method method, MethodParameter[] parameters, MethodHandle invoker) {
+            this.mbd = mbd;
+            this.method = method;
+            this.factoryBeanName = mbd.getFactoryBeanName();
+            this.parameters = parameters;
+            this.invoker = invoker;
+        }
+
+        /**
+         * @return plan for the factory method resolved on the definition, {@code null} if it can't be planned
+         */
+        @Nullable
+        static FactoryMethodPlan of(RootBeanDefinition mbd) {
+            Method method = mbd.getResolvedFactoryMethod();
+            if (method == null) {
+                return null;
+            }
+            MethodParameter[] parameters = new MethodParameter[method.getParameterCount()];
+            for (int i = 0; i < parameters.length; i++) {
+                if (InjectionPoint.class.isAssignableFrom(method.getParameterTypes()[i])) {
+                    // resolved against the current injection point on every call
+                    return null;
+                }
+                parameters[i] = new MethodParameter(method, i);
+            }
+            ReflectionUtils.makeAccessible(method);
+            MethodHandle handle;
+            try {
+                handle = LOOKUP.unreflect(method);
+            } catch (IllegalAccessException ex) {
+                return null;
+            }
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            int arity = parameters.length + (isStatic ? 0 : 1);
+            MethodHandle invoker = handle.asType(MethodType.genericMethodType(arity))
+                    .asSpreader(Object[].class, parameters.length);
+            if (isStatic) {
+                invoker = MethodHandles.dropArguments(invoker, 0, Object.class);
+            }
+            return new FactoryMethodPlan(mbd, method, parameters, invoker);
+        }
+
+        @Nullable
+        Object invoke(@Nullable Object factoryBean, Object[] args) throws Throwable {
+            if (factoryBean == null) {
+                return (Object) invoker.invokeExact((Object) null, args);
+            }
+            BoundInvoker bound = this.bound;
+            if (bound == null || bound.target != factoryBean) {
+                bound = new BoundInvoker(factoryBean, invoker.bindTo(factoryBean));
+                this.bound = bound;
+            }
+            return (Object) bound.handle.invokeExact(args);
+        }
+
+        private static final class BoundInvoker {
+            final Object target;
+            final MethodHandle handle;
+
+            BoundInvoker(Object target, MethodHandle handle) {
+                this.target = target;
+                this.handle = handle;
+            }
+        }
+    }
+
+    static class Product {
+        private final C01_LargeContextGenerator.Leaf0 leaf;
+        private final int serial;
+
+        Product(C01_LargeContextGenerator.Leaf0 leaf, int serial) {
+            this.leaf = leaf;
+            this.serial = serial;
+        }
+
+        public static Product create() {
+            return new Product(null, 0);
+        }
+
+        public C01_LargeContextGenerator.Leaf0 getLeaf() {
+            return leaf;
+        }
+
+        public int getSerial() {
+            return serial;
+        }
+    }
+
+    static class ProductFactory {
+        private int serial;
+
+        public Product create(C01_LargeContextGenerator.Leaf0 leaf) {
+            return new Product(leaf, ++serial);
+        }
+
+        public Product nothing() {
+            return null;
+        }
+    }
+
+    @Configuration
+    static class Config {
+        @Bean
+        public C01_LargeContextGenerator.Leaf0 leaf() {
+            return new C01_LargeContextGenerator.Leaf0();
+        }
+
+        @Bean
+        @Scope(BeanDefinition.SCOPE_PROTOTYPE)
+        public Product product() {
+            return new Product(leaf(), 0);
+        }
+    }
+}
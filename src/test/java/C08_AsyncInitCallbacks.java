@@ -0,0 +1,472 @@
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.SmartFactoryBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.InitDestroyAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class C08_AsyncInitCallbacks {
+    private static final long DELAY_MILLIS = 300;
+
+    /**
+     * {@code @MyInit}, {@link InitializingBean#afterPropertiesSet()} and init method callbacks of async beans
+     * run concurrently, {@link AsyncInitBeanFactory#preInstantiateSingletons()} returns once all of them are done
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#initializeBean(String, Object, RootBeanDefinition)
+     */
+    @Test
+    void concurrentInit() {
+        AsyncInitBeanFactory bf = new AsyncInitBeanFactory();
+        bf.addBeanPostProcessor(initDestroyProcessor());
+
+        GenericBeanDefinition cacheBd = new GenericBeanDefinition();
+        cacheBd.setBeanClass(SlowCache.class);
+        bf.registerBeanDefinition("cache", cacheBd);
+
+        GenericBeanDefinition poolBd = new GenericBeanDefinition();
+        poolBd.setBeanClass(SlowPool.class);
+        poolBd.setAttribute(AsyncInitBeanFactory.ASYNC_INIT_ATTRIBUTE, Boolean.TRUE);
+        bf.registerBeanDefinition("pool", poolBd);
+
+        GenericBeanDefinition indexBd = new GenericBeanDefinition();
+        indexBd.setBeanClass(SlowIndex.class);
+        indexBd.setInitMethodName("warm");
+        bf.registerBeanDefinition("index", indexBd);
+
+        long start = System.nanoTime();
+        bf.preInstantiateSingletons();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(bf.getBean(SlowCache.class).isInitialized()).isTrue();
+        assertThat(bf.getBean(SlowPool.class).isInitialized()).isTrue();
+        assertThat(bf.getBean(SlowIndex.class).isInitialized()).isTrue();
+        assertThat(bf.getBean(SlowIndex.class).getBeanName()).isEqualTo("index");
+        assertThat(elapsedMillis).isLessThan(3 * DELAY_MILLIS);
+    }
+
+    /**
+     * A dependent bean waits for the async init of its dependencies before its own init
+     * @see DefaultListableBeanFactory#getDependenciesForBean(String)
+     */
+    @Test
+    void readinessBarrier() {
+        AsyncInitBeanFactory bf = new AsyncInitBeanFactory();
+        bf.addBeanPostProcessor(initDestroyProcessor());
+
+        GenericBeanDefinition cacheBd = new GenericBeanDefinition();
+        cacheBd.setBeanClass(SlowCache.class);
+        bf.registerBeanDefinition("cache", cacheBd);
+
+        GenericBeanDefinition consumerBd = new GenericBeanDefinition();
+        consumerBd.setBeanClass(CacheConsumer.class);
+        consumerBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        bf.registerBeanDefinition("consumer", consumerBd);
+
+        GenericBeanDefinition asyncConsumerBd = new GenericBeanDefinition();
+        asyncConsumerBd.setBeanClass(CacheConsumer.class);
+        asyncConsumerBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        asyncConsumerBd.setAttribute(AsyncInitBeanFactory.ASYNC_INIT_ATTRIBUTE, Boolean.TRUE);
+        bf.registerBeanDefinition("asyncConsumer", asyncConsumerBd);
+
+        bf.preInstantiateSingletons();
+
+        assertThat(bf.getBean("consumer", CacheConsumer.class).isCacheInitialized()).isTrue();
+        assertThat(bf.getBean("asyncConsumer", CacheConsumer.class).isCacheInitialized()).isTrue();
+    }
+
+    /**
+     * {@link SmartInitializingSingleton} callbacks see async beans initialized, even without depending on them
+     * @see DefaultListableBeanFactory#preInstantiateSingletons()
+     */
+    @Test
+    void smartInitializingSingletonAfterAsyncInit() {
+        AsyncInitBeanFactory bf = new AsyncInitBeanFactory();
+        bf.addBeanPostProcessor(initDestroyProcessor());
+
+        GenericBeanDefinition cacheBd = new GenericBeanDefinition();
+        cacheBd.setBeanClass(SlowCache.class);
+        bf.registerBeanDefinition("cache", cacheBd);
+
+        GenericBeanDefinition watcherBd = new GenericBeanDefinition();
+        watcherBd.setBeanClass(CacheWatcher.class);
+        bf.registerBeanDefinition("watcher", watcherBd);
+
+        bf.preInstantiateSingletons();
+
+        assertThat(bf.getBean(CacheWatcher.class).isCacheInitialized()).isTrue();
+    }
+
+    /**
+     * Failed async init callbacks are collected and reported together at the end of startup,
+     * failed beans and their dependents are destroyed
+     */
+    @Test
+    void aggregatedFailures() {
+        AsyncInitBeanFactory bf = new AsyncInitBeanFactory();
+
+        for (String name : new String[] { "broken1", "broken2" }) {
+            GenericBeanDefinition bd = new GenericBeanDefinition();
+            bd.setBeanClass(BrokenResource.class);
+            bf.registerBeanDefinition(name, bd);
+        }
+        GenericBeanDefinition poolBd = new GenericBeanDefinition();
+        poolBd.setBeanClass(SlowPool.class);
+        poolBd.setAttribute(AsyncInitBeanFactory.ASYNC_INIT_ATTRIBUTE, Boolean.TRUE);
+        bf.registerBeanDefinition("pool", poolBd);
+
+        assertThatThrownBy(bf::preInstantiateSingletons)
+                .isInstanceOfSatisfying(BeanCreationException.class, ex -> {
+                    assertThat(ex.getRelatedCauses()).hasSize(2);
+                    assertThat(ex.contains(IllegalStateException.class)).isTrue();
+                });
+        assertThat(bf.containsSingleton("broken1")).isFalse();
+        assertThat(bf.containsSingleton("broken2")).isFalse();
+        assertThat(bf.getBean(SlowPool.class).isInitialized()).isTrue();
+    }
+
+    private static InitDestroyAnnotationBeanPostProcessor initDestroyProcessor() {
+        InitDestroyAnnotationBeanPostProcessor processor = new InitDestroyAnnotationBeanPostProcessor();
+        processor.setInitAnnotationType(B03_InitDestroyPostProcessor.MyInit.class);
+        processor.setDestroyAnnotationType(B03_InitDestroyPostProcessor.MyDestroy.class);
+        return processor;
+    }
+
+    /**
+     * Marks a singleton whose init callbacks may run asynchronously during
+     * {@link DefaultListableBeanFactory#preInstantiateSingletons()}
+     */
+    @Target(ElementType.TYPE)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface AsyncInit {}
+
+    /**
+     * Factory that runs the init callbacks of {@link AsyncInit} singletons, or singletons whose definition has
+     * {@link #ASYNC_INIT_ATTRIBUTE} set, on virtual threads while the startup thread moves on to other beans.
+     * <p>Aware callbacks and after-initialization processors stay on the creating thread, so the exposed instance
+     * (proxy included) is known right away. Before-initialization processors and init methods run in the background
+     * and must not replace the instance. A bean only waits for the async init of the beans it depends on, right before
+     * its own init. Async init callbacks must not create other beans, that would need the singleton lock held by the
+     * startup thread. {@link SmartInitializingSingleton} callbacks run once all async init callbacks have completed.
+     * <p>Without virtual threads (before JDK 21) a cached pool of daemon threads is used.
+     */
+    static class AsyncInitBeanFactory extends DefaultListableBeanFactory {
+        static final String ASYNC_INIT_ATTRIBUTE = AsyncInitBeanFactory.class.getName() + ".asyncInit";
+
+        private final Map<String, CompletableFuture<Void>> readiness = new ConcurrentHashMap<>();
+
+        @Nullable
+        private volatile ExecutorService executor;
+
+        /**
+         * Same as {@link DefaultListableBeanFactory#preInstantiateSingletons()}, except that the
+         * {@link SmartInitializingSingleton} callbacks only run after every async init has completed
+         */
+        @Override
+        public void preInstantiateSingletons() throws BeansException {
+            List<String> beanNames = Arrays.asList(getBeanDefinitionNames());
+            ExecutorService executor = newInitExecutor();
+            this.executor = executor;
+            BeansException failure = null;
+            List<String> failedBeans = new ArrayList<>();
+            List<Throwable> causes = new ArrayList<>();
+            try {
+                try {
+                    instantiateSingletons(beanNames);
+                } catch (BeansException ex) {
+                    failure = ex;
+                } finally {
+                    this.executor = null;
+                }
+                // dependents are only submitted once their dependencies are ready, keep the executor open until then
+                for (Map.Entry<String, CompletableFuture<Void>> entry : readiness.entrySet()) {
+                    try {
+                        entry.getValue().join();
+                    } catch (CompletionException ex) {
+                        failedBeans.add(entry.getKey());
+                        if (!(ex.getCause() instanceof DependencyNotReadyException)) {
+                            causes.add(ex.getCause());
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+            readiness.clear();
+            for (String failedBean : failedBeans) {
+                destroySingleton(failedBean);
+            }
+
+            if (failure instanceof BeanCreationException) {
+                causes.forEach(((BeanCreationException) failure)::addRelatedCause);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (!causes.isEmpty()) {
+                BeanCreationException ex = new BeanCreationException(
+                        causes.size() + " bean(s) failed asynchronous initialization: " + failedBeans);
+                causes.forEach(ex::addRelatedCause);
+                throw ex;
+            }
+            for (String beanName : beanNames) {
+                Object singletonInstance = getSingleton(beanName);
+                if (singletonInstance instanceof SmartInitializingSingleton) {
+                    ((SmartInitializingSingleton) singletonInstance).afterSingletonsInstantiated();
+                }
+            }
+        }
+
+        private void instantiateSingletons(List<String> beanNames) {
+            for (String beanName : beanNames) {
+                RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+                if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+                    if (isFactoryBean(beanName)) {
+                        Object bean = getBean(FACTORY_BEAN_PREFIX + beanName);
+                        if (bean instanceof SmartFactoryBean && ((SmartFactoryBean<?>) bean).isEagerInit()) {
+                            getBean(beanName);
+                        }
+                    } else {
+                        getBean(beanName);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected Object initializeBean(String beanName, Object bean, @Nullable RootBeanDefinition mbd) {
+            ExecutorService executor = this.executor;
+            CompletableFuture<Void> dependencies = dependenciesReady(beanName);
+            if (executor == null || mbd == null || mbd.isSynthetic() || !mbd.isSingleton() || !isAsyncInit(mbd, bean)) {
+                awaitReady(beanName, dependencies);
+                return super.initializeBean(beanName, bean, mbd);
+            }
+
+            invokeAwareMethods(beanName, bean);
+            CompletableFuture<Void> ready = dependencies.thenRunAsync(() -> {
+                try {
+                    Object current = applyBeanPostProcessorsBeforeInitialization(bean, beanName);
+                    if (current != bean) {
+                        throw new IllegalStateException("BeanPostProcessor replaced async initialized bean '" + beanName + "'");
+                    }
+                    invokeInitMethods(beanName, bean, mbd);
+                } catch (Throwable ex) {
+                    throw new CompletionException(new BeanCreationException(mbd.getResourceDescription(), beanName,
+                            "Asynchronous invocation of init method failed", ex));
+                }
+            }, executor);
+            readiness.put(beanName, ready);
+            return applyBeanPostProcessorsAfterInitialization(bean, beanName);
+        }
+
+        /**
+         * Blocks until the async init of a singleton has completed, returns immediately for other beans
+         */
+        void awaitInitialized(String name) {
+            CompletableFuture<Void> ready = readiness.get(canonicalName(name));
+            if (ready != null) {
+                awaitReady(name, ready);
+            }
+        }
+
+        private CompletableFuture<Void> dependenciesReady(String beanName) {
+            String[] dependencies = getDependenciesForBean(beanName);
+            List<CompletableFuture<Void>> pending = new ArrayList<>(dependencies.length);
+            for (String dependency : dependencies) {
+                CompletableFuture<Void> ready = readiness.get(dependency);
+                if (ready != null) {
+                    pending.add(ready.exceptionally(ex -> {
+                        throw new CompletionException(new DependencyNotReadyException(beanName, dependency, ex.getCause()));
+                    }));
+                }
+            }
+            return pending.isEmpty() ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]));
+        }
+
+        private void awaitReady(String beanName, CompletableFuture<Void> ready) {
+            try {
+                ready.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof BeansException) {
+                    throw (BeansException) ex.getCause();
+                }
+                throw new BeanCreationException(beanName, "Asynchronous initialization failed", ex.getCause());
+            }
+        }
+
+        /**
+         * Same callbacks as the private {@code AbstractAutowireCapableBeanFactory#invokeAwareMethods}
+         */
+        private void invokeAwareMethods(String beanName, Object bean) {
+            if (bean instanceof BeanNameAware) {
+                ((BeanNameAware) bean).setBeanName(beanName);
+            }
+            if (bean instanceof BeanClassLoaderAware) {
+                ClassLoader beanClassLoader = getBeanClassLoader();
+                if (beanClassLoader != null) {
+                    ((BeanClassLoaderAware) bean).setBeanClassLoader(beanClassLoader);
+                }
+            }
+            if (bean instanceof BeanFactoryAware) {
+                ((BeanFactoryAware) bean).setBeanFactory(this);
+            }
+        }
+
+        private static boolean isAsyncInit(RootBeanDefinition mbd, Object bean) {
+            return Boolean.TRUE.equals(mbd.getAttribute(ASYNC_INIT_ATTRIBUTE))
+                    || AnnotatedElementUtils.hasAnnotation(ClassUtils.getUserClass(bean), AsyncInit.class);
+        }
+
+        /**
+         * {@code Executors.newVirtualThreadPerTaskExecutor()} where available, resolved reflectively
+         * to keep compiling against older JDKs
+         */
+        private static ExecutorService newInitExecutor() {
+            Method virtualThreadExecutor = ReflectionUtils.findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+            if (virtualThreadExecutor != null) {
+                return (ExecutorService) ReflectionUtils.invokeMethod(virtualThreadExecutor, null);
+            }
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "async-init");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * A dependency failed its async init, the failure is reported for the dependency only
+     */
+    static class DependencyNotReadyException extends BeanCreationException {
+        DependencyNotReadyException(String beanName, String dependency, Throwable cause) {
+            super(beanName, "Dependency '" + dependency + "' failed asynchronous initialization", cause);
+        }
+    }
+
+    static class SlowResource implements BeanNameAware {
+        private volatile boolean initialized;
+        private String beanName;
+
+        void open() {
+            try {
+                Thread.sleep(DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            initialized = true;
+        }
+
+        @Override
+        public void setBeanName(String name) {
+            beanName = name;
+        }
+
+        public String getBeanName() {
+            return beanName;
+        }
+
+        public boolean isInitialized() {
+            return initialized;
+        }
+    }
+
+    @AsyncInit
+    static class SlowCache extends SlowResource {
+        @B03_InitDestroyPostProcessor.MyInit
+        public void load() {
+            open();
+        }
+    }
+
+    static class SlowPool extends SlowResource implements InitializingBean {
+        @Override
+        public void afterPropertiesSet() {
+            open();
+        }
+    }
+
+    @AsyncInit
+    static class SlowIndex extends SlowResource {
+        public void warm() {
+            open();
+        }
+    }
+
+    @AsyncInit
+    static class BrokenResource implements InitializingBean {
+        @Override
+        public void afterPropertiesSet() {
+            throw new IllegalStateException("Resource not available");
+        }
+    }
+
+    /**
+     * Looks the cache up once all singletons are instantiated, without a recorded dependency on it
+     */
+    static class CacheWatcher implements BeanFactoryAware, SmartInitializingSingleton {
+        private BeanFactory beanFactory;
+        private boolean cacheInitialized;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public void afterSingletonsInstantiated() {
+            cacheInitialized = beanFactory.getBean(SlowCache.class).isInitialized();
+        }
+
+        public boolean isCacheInitialized() {
+            return cacheInitialized;
+        }
+    }
+
+    static class CacheConsumer implements InitializingBean {
+        private SlowCache cache;
+        private boolean cacheInitialized;
+
+        public void setCache(SlowCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            cacheInitialized = cache.isInitialized();
+        }
+
+        public boolean isCacheInitialized() {
+            return cacheInitialized;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.BeanNotOfRequiredTypeException;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class C09_BeanHandles {
+    /**
+     * Singleton handle, stays valid until the registry changes
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#doGetBean(String, Class, Object[], boolean)
+     */
+    @Test
+    void singletonHandle() {
+        HandleBeanFactory bf = new HandleBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        bf.registerBeanDefinition("leaf", bd);
+        bf.registerAlias("leaf", "alias");
+
+        BeanHandle<C01_LargeContextGenerator.Leaf0> handle = bf.getBeanHandle("alias", C01_LargeContextGenerator.Leaf0.class);
+        C01_LargeContextGenerator.Leaf0 leaf = handle.get();
+
+        assertThat(handle.getBeanName()).isEqualTo("leaf");
+        assertThat(handle.get()).isSameAs(leaf).isSameAs(bf.getBean("leaf"));
+
+        bf.destroySingletons();
+        C01_LargeContextGenerator.Leaf0 recreated = handle.get();
+        assertThat(recreated).isNotSameAs(leaf).isSameAs(bf.getBean("leaf"));
+
+        GenericBeanDefinition bd2 = new GenericBeanDefinition();
+        bd2.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        bf.registerBeanDefinition("leaf2", bd2);
+        bf.removeAlias("alias");
+        bf.registerAlias("leaf2", "alias");
+
+        assertThat(handle.get()).isSameAs(bf.getBean("leaf2"));
+        assertThat(handle.getBeanName()).isEqualTo("leaf2");
+    }
+
+    /**
+     * Prototype handle creates beans without going through {@code getBean}, autowiring included
+     */
+    @Test
+    void prototypeHandle() {
+        HandleBeanFactory bf = new HandleBeanFactory();
+
+        GenericBeanDefinition leafBd = new GenericBeanDefinition();
+        leafBd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        bf.registerBeanDefinition("leaf", leafBd);
+
+        GenericBeanDefinition nodeBd = new GenericBeanDefinition();
+        nodeBd.setBeanClass(C01_LargeContextGenerator.Node1.class);
+        nodeBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        nodeBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        bf.registerBeanDefinition("node", nodeBd);
+
+        BeanHandle<C01_LargeContextGenerator.Node1> handle = bf.getBeanHandle("node", C01_LargeContextGenerator.Node1.class);
+        C01_LargeContextGenerator.Node1 node1 = handle.get();
+        C01_LargeContextGenerator.Node1 node2 = handle.get();
+
+        assertThat(node1).isNotSameAs(node2);
+        assertThat(node2.getLeaf0()).isSameAs(bf.getBean("leaf"));
+        assertThat(bf.getDependentBeans("leaf")).contains("node");
+    }
+
+    /**
+     * Factory beans, unknown names and type mismatches keep the {@code getBean} semantics
+     */
+    @Test
+    void delegatingHandle() {
+        HandleBeanFactory bf = new HandleBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(LeafFactoryBean.class);
+        bf.registerBeanDefinition("leaf", bd);
+
+        BeanHandle<C01_LargeContextGenerator.Leaf1> product = bf.getBeanHandle("leaf", C01_LargeContextGenerator.Leaf1.class);
+        BeanHandle<LeafFactoryBean> factory = bf.getBeanHandle("&leaf", LeafFactoryBean.class);
+
+        assertThat(product.get()).isSameAs(bf.getBean("leaf"));
+        assertThat(factory.get()).isSameAs(bf.getBean("&leaf"));
+        assertThatThrownBy(() -> bf.getBeanHandle("leaf", String.class)).isInstanceOf(BeanNotOfRequiredTypeException.class);
+        assertThatThrownBy(() -> bf.getBeanHandle("missing", String.class)).isInstanceOf(NoSuchBeanDefinitionException.class);
+    }
+
+    /**
+     * {@code getBean(name, type)} against {@link BeanHandle#get()} for a singleton and a prototype.
+     * Measured with the {@link C01_LargeContextGenerator.Bench} harness used by the other benchmarks instead of JMH.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void lookupBenchmark() {
+        HandleBeanFactory bf = new HandleBeanFactory();
+
+        GenericBeanDefinition leafBd = new GenericBeanDefinition();
+        leafBd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        bf.registerBeanDefinition("leaf", leafBd);
+        bf.registerAlias("leaf", "alias");
+
+        GenericBeanDefinition nodeBd = new GenericBeanDefinition();
+        nodeBd.setBeanClass(C01_LargeContextGenerator.Node1.class);
+        nodeBd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        nodeBd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        bf.registerBeanDefinition("node", nodeBd);
+
+        BeanHandle<C01_LargeContextGenerator.Leaf0> leaf = bf.getBeanHandle("alias", C01_LargeContextGenerator.Leaf0.class);
+        BeanHandle<C01_LargeContextGenerator.Node1> node = bf.getBeanHandle("node", C01_LargeContextGenerator.Node1.class);
+
+        long singleton = C01_LargeContextGenerator.Bench.measure(10_000_000,
+                i -> bf.getBean("alias", C01_LargeContextGenerator.Leaf0.class));
+        long singletonHandle = C01_LargeContextGenerator.Bench.measure(10_000_000, i -> leaf.get());
+        long prototype = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                i -> bf.getBean("node", C01_LargeContextGenerator.Node1.class));
+        long prototypeHandle = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> node.get());
+
+        System.out.printf("singleton: getBean %d ns, handle %d ns%n", singleton, singletonHandle);
+        System.out.printf("prototype: getBean %d ns, handle %d ns%n", prototype, prototypeHandle);
+    }
+
+    /**
+     * Pre-resolved reference to a bean. Name, scope and type are resolved once; the resolution is reused until
+     * the factory's version stamp changes. Singletons are then served from a field, prototypes are created
+     * straight from the merged definition.
+     */
+    static final class BeanHandle<T> {
+        private final HandleBeanFactory beanFactory;
+        private final String name;
+        private final Class<T> requiredType;
+        private volatile Resolution<T> resolution;
+
+        private BeanHandle(HandleBeanFactory beanFactory, String name, Class<T> requiredType) {
+            this.beanFactory = beanFactory;
+            this.name = name;
+            this.requiredType = requiredType;
+            this.resolution = resolve();
+        }
+
+        T get() {
+            Resolution<T> resolution = this.resolution;
+            if (resolution.version != beanFactory.getVersion()) {
+                resolution = resolve();
+                this.resolution = resolution;
+            }
+            if (resolution.singleton != null) {
+                return resolution.singleton;
+            }
+            switch (resolution.mode) {
+                case SINGLETON:
+                    T bean = beanFactory.getBean(resolution.beanName, requiredType);
+                    if (beanFactory.isFullyCreatedSingleton(resolution.beanName)) {
+                        this.resolution = resolution.withSingleton(bean);
+                    }
+                    return bean;
+                case PROTOTYPE:
+                    return checkType(resolution.beanName, beanFactory.createPrototype(resolution.beanName, resolution.mbd));
+                default:
+                    return beanFactory.getBean(name, requiredType);
+            }
+        }
+
+        String getBeanName() {
+            Resolution<T> resolution = this.resolution;
+            if (resolution.version != beanFactory.getVersion()) {
+                resolution = resolve();
+                this.resolution = resolution;
+            }
+            return resolution.beanName;
+        }
+
+        private Resolution<T> resolve() {
+            long version = beanFactory.getVersion();
+            String beanName = beanFactory.canonicalName(BeanFactoryUtils.transformedBeanName(name));
+            if (!beanFactory.isTypeMatch(name, requiredType)) {
+                Class<?> actualType = beanFactory.getType(name);
+                throw new BeanNotOfRequiredTypeException(name, requiredType, actualType != null ? actualType : Object.class);
+            }
+            if (BeanFactoryUtils.isFactoryDereference(name) || !beanFactory.containsBeanDefinition(beanName)) {
+                // factory bean references and manually registered singletons
+                return new Resolution<>(version, beanName, Mode.DELEGATE, null, null);
+            }
+            RootBeanDefinition mbd = beanFactory.mergedDefinition(beanName);
+            if (mbd.isAbstract() || beanFactory.isFactoryBean(beanName)) {
+                return new Resolution<>(version, beanName, Mode.DELEGATE, null, null);
+            }
+            if (mbd.isSingleton()) {
+                return new Resolution<>(version, beanName, Mode.SINGLETON, null, null);
+            }
+            if (mbd.isPrototype() && mbd.getDependsOn() == null) {
+                return new Resolution<>(version, beanName, Mode.PROTOTYPE, beanFactory.prepareForCreation(beanName), null);
+            }
+            // depends-on of prototypes and custom scopes are handled by getBean
+            return new Resolution<>(version, beanName, Mode.DELEGATE, null, null);
+        }
+
+        private T checkType(String beanName, Object bean) {
+            if (!requiredType.isInstance(bean)) {
+                throw new BeanNotOfRequiredTypeException(beanName, requiredType, bean.getClass());
+            }
+            return requiredType.cast(bean);
+        }
+
+        private enum Mode {
+            SINGLETON, PROTOTYPE, DELEGATE
+        }
+
+        private static final class Resolution<T> {
+            final long version;
+            final String beanName;
+            final Mode mode;
+            @Nullable
+            final RootBeanDefinition mbd;
+            @Nullable
+            final T singleton;
+
+            Resolution(long version, String beanName, Mode mode, @Nullable RootBeanDefinition mbd, @Nullable T singleton) {
+                this.version = version;
+                this.beanName = beanName;
+                this.mode = mode;
+                this.mbd = mbd;
+                this.singleton = singleton;
+            }
+
+            Resolution<T> withSingleton(T singleton) {
+                return new Resolution<>(version, beanName, mode, mbd, singleton);
+            }
+        }
+    }
+
+    /**
+     * Factory handing out {@link BeanHandle}s. Every change that can affect what a name resolves to bumps the version
+     * stamp: definitions, aliases, singleton registration and destruction, metadata cache clearing.
+     */
+    static class HandleBeanFactory extends DefaultListableBeanFactory {
+        private final AtomicLong version = new AtomicLong();
+
+        <T> BeanHandle<T> getBeanHandle(String name, Class<T> requiredType) {
+            return new BeanHandle<>(this, name, requiredType);
+        }
+
+        long getVersion() {
+            return version.get();
+        }
+
+        @Override
+        public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException {
+            super.registerBeanDefinition(beanName, beanDefinition);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            super.removeBeanDefinition(beanName);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void registerAlias(String name, String alias) {
+            super.registerAlias(name, alias);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void removeAlias(String alias) {
+            super.removeAlias(alias);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void registerSingleton(String beanName, Object singletonObject) throws IllegalStateException {
+            super.registerSingleton(beanName, singletonObject);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void destroySingleton(String beanName) {
+            super.destroySingleton(beanName);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void destroySingletons() {
+            super.destroySingletons();
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void clearMetadataCache() {
+            super.clearMetadataCache();
+            version.incrementAndGet();
+        }
+
+        RootBeanDefinition mergedDefinition(String beanName) {
+            return getMergedLocalBeanDefinition(beanName);
+        }
+
+        /**
+         * Marks the bean as created, which re-merges its definition once, and returns the definition to create from
+         */
+        RootBeanDefinition prepareForCreation(String beanName) {
+            markBeanAsCreated(beanName);
+            return getMergedLocalBeanDefinition(beanName);
+        }
+
+        /**
+         * Prototype branch of {@code doGetBean}
+         */
+        Object createPrototype(String beanName, RootBeanDefinition mbd) {
+            beforePrototypeCreation(beanName);
+            try {
+                return createBean(beanName, mbd, null);
+            } finally {
+                afterPrototypeCreation(beanName);
+            }
+        }
+
+        boolean isFullyCreatedSingleton(String beanName) {
+            return containsSingleton(beanName) && !isSingletonCurrentlyInCreation(beanName);
+        }
+    }
+
+    static class LeafFactoryBean implements FactoryBean<C01_LargeContextGenerator.Leaf1> {
+        @Override
+        public C01_LargeContextGenerator.Leaf1 getObject() {
+            return new C01_LargeContextGenerator.Leaf1();
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return C01_LargeContextGenerator.Leaf1.class;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.AutowireCandidateQualifier;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C10_StreamingBeansOfType {
+    /**
+     * Candidates are filtered on definition metadata and only the ones reaching the terminal operation are created,
+     * compare with {@link DefaultListableBeanFactory#getBeansOfType(Class)}
+     * @see DefaultListableBeanFactory#getBeansOfType(Class, boolean, boolean)
+     */
+    @Test
+    void filterBeforeInstantiation() {
+        StreamingBeanFactory bf = new StreamingBeanFactory();
+        registerPlugins(bf, 1_000);
+
+        Optional<Plugin> first = bf.streamBeansOfType(Plugin.class)
+                .filter(candidate -> candidate.hasQualifier("group3"))
+                .findFirst()
+                .map(BeanCandidate::get);
+
+        assertThat(first).hasValueSatisfying(plugin -> assertThat(plugin.getId()).isEqualTo(3));
+        assertThat(createdSingletons(bf)).isEqualTo(1);
+
+        Map<String, Plugin> primary = bf.getBeansOfType(Plugin.class, BeanCandidate::isPrimary);
+        assertThat(primary).containsOnlyKeys("plugin42");
+
+        long prototypes = bf.streamBeansOfType(Plugin.class)
+                .filter(candidate -> BeanDefinition.SCOPE_PROTOTYPE.equals(candidate.getScope()))
+                .count();
+        assertThat(prototypes).isEqualTo(100);
+        assertThat(createdSingletons(bf)).isEqualTo(2);
+    }
+
+    /**
+     * Qualifiers declared on the bean class are found without creating the bean
+     * @see DefaultListableBeanFactory#findAnnotationOnBean(String, Class)
+     */
+    @Test
+    void classQualifier() {
+        StreamingBeanFactory bf = new StreamingBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(SpecialPlugin.class);
+        bf.registerBeanDefinition("specialPlugin", bd);
+        registerPlugins(bf, 10);
+
+        assertThat(bf.streamBeansOfType(Plugin.class).filter(candidate -> candidate.hasQualifier("special"))
+                .map(BeanCandidate::getBeanName)).containsExactly("specialPlugin");
+        assertThat(createdSingletons(bf)).isZero();
+    }
+
+    /**
+     * Parallel creation gives the same beans as sequential creation. Singleton creation still takes the factory's
+     * singleton lock, prototypes are created concurrently.
+     */
+    @Test
+    void parallel() {
+        StreamingBeanFactory bf = new StreamingBeanFactory();
+        registerPlugins(bf, 1_000);
+
+        Map<String, Plugin> sequential = bf.streamBeansOfType(Plugin.class)
+                .collect(Collectors.toMap(BeanCandidate::getBeanName, BeanCandidate::get));
+        Map<String, Plugin> parallel = bf.streamBeansOfType(Plugin.class).parallel()
+                .collect(Collectors.toConcurrentMap(BeanCandidate::getBeanName, BeanCandidate::get));
+
+        assertThat(parallel).hasSameSizeAs(sequential);
+        sequential.forEach((name, plugin) -> {
+            if (bf.isSingleton(name)) {
+                assertThat(parallel.get(name)).isSameAs(plugin);
+            } else {
+                assertThat(parallel.get(name)).isNotSameAs(plugin);
+            }
+        });
+    }
+
+    /**
+     * Time to the first match of a qualifier, {@code getBeansOfType} against the stream, and to create all candidates,
+     * sequential and parallel. Every run uses a fresh factory. Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void candidateBenchmark() {
+        int pluginCount = 10_000;
+        long firstEager = C01_LargeContextGenerator.Bench.measure(10, i -> {
+            StreamingBeanFactory bf = registerPlugins(new StreamingBeanFactory(), pluginCount);
+            return bf.getBeansOfType(Plugin.class).values().stream().filter(plugin -> plugin.getId() % 10 == 3).findFirst();
+        });
+        long firstStreamed = C01_LargeContextGenerator.Bench.measure(10, i -> {
+            StreamingBeanFactory bf = registerPlugins(new StreamingBeanFactory(), pluginCount);
+            return bf.streamBeansOfType(Plugin.class).filter(candidate -> candidate.hasQualifier("group3"))
+                    .findFirst().map(BeanCandidate::get);
+        });
+        long allSequential = C01_LargeContextGenerator.Bench.measure(10, i -> {
+            StreamingBeanFactory bf = registerPlugins(new StreamingBeanFactory(), pluginCount);
+            return bf.streamBeansOfType(Plugin.class).map(BeanCandidate::get).count();
+        });
+        long allParallel = C01_LargeContextGenerator.Bench.measure(10, i -> {
+            StreamingBeanFactory bf = registerPlugins(new StreamingBeanFactory(), pluginCount);
+            return bf.streamBeansOfType(Plugin.class).parallel().map(BeanCandidate::get).count();
+        });
+
+        System.out.printf("%,d plugins: first match getBeansOfType %,d us, streamed %,d us%n",
+                pluginCount, firstEager / 1_000, firstStreamed / 1_000);
+        System.out.printf("%,d plugins: all sequential %,d us, parallel %,d us%n",
+                pluginCount, allSequential / 1_000, allParallel / 1_000);
+    }
+
+    /**
+     * Plugins with qualifier {@code group<id % 10>}, every tenth one a prototype, {@code plugin42} primary
+     */
+    private static StreamingBeanFactory registerPlugins(StreamingBeanFactory bf, int count) {
+        for (int i = 0; i < count; i++) {
+            GenericBeanDefinition bd = new GenericBeanDefinition();
+            bd.setBeanClass(PluginImpl.class);
+            bd.getConstructorArgumentValues().addGenericArgumentValue(i);
+            bd.addQualifier(new AutowireCandidateQualifier(Qualifier.class, "group" + i % 10));
+            bd.setPrimary(i == 42);
+            if (i % 10 == 9) {
+                bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+            }
+            bf.registerBeanDefinition("plugin" + i, bd);
+        }
+        return bf;
+    }
+
+    private static long createdSingletons(StreamingBeanFactory bf) {
+        return Arrays.stream(bf.getBeanNamesForType(Plugin.class)).filter(bf::containsSingleton).count();
+    }
+
+    /**
+     * Factory with a streaming alternative to {@code getBeansOfType}: candidates are yielded one by one in
+     * registration order, expose their merged definition metadata and are only created when asked for.
+     * The candidate names come from {@code getBeanNamesForType}, which is cached once the configuration is frozen.
+     */
+    static class StreamingBeanFactory extends DefaultListableBeanFactory {
+        /**
+         * Candidates of the given type, including non-singletons and factory bean products
+         */
+        <T> Stream<BeanCandidate<T>> streamBeansOfType(Class<T> type) {
+            return streamBeansOfType(type, true, true);
+        }
+
+        /**
+         * @see #getBeanNamesForType(Class, boolean, boolean)
+         */
+        <T> Stream<BeanCandidate<T>> streamBeansOfType(Class<T> type, boolean includeNonSingletons, boolean allowEagerInit) {
+            return Arrays.stream(getBeanNamesForType(type, includeNonSingletons, allowEagerInit))
+                    .map(beanName -> new BeanCandidate<>(this, beanName, type));
+        }
+
+        /**
+         * {@code getBeansOfType} creating only the beans whose candidate passes the filter
+         */
+        <T> Map<String, T> getBeansOfType(Class<T> type, Predicate<? super BeanCandidate<T>> filter) {
+            return streamBeansOfType(type)
+                    .filter(filter)
+                    .collect(Collectors.toMap(BeanCandidate::getBeanName, BeanCandidate::get, (a, b) -> a, LinkedHashMap::new));
+        }
+
+        @Nullable
+        RootBeanDefinition mergedDefinition(String beanName) {
+            return containsBeanDefinition(beanName) ? getMergedLocalBeanDefinition(beanName) : null;
+        }
+    }
+
+    /**
+     * Bean of a streamed type. Metadata comes from the merged definition; {@link #get()} creates or looks up the
+     * bean on first call and returns the same instance afterwards, prototypes included.
+     */
+    static final class BeanCandidate<T> {
+        private final StreamingBeanFactory beanFactory;
+        private final String beanName;
+        private final Class<T> type;
+        @Nullable
+        private volatile T bean;
+
+        BeanCandidate(StreamingBeanFactory beanFactory, String beanName, Class<T> type) {
+            this.beanFactory = beanFactory;
+            this.beanName = beanName;
+            this.type = type;
+        }
+
+        String getBeanName() {
+            return beanName;
+        }
+
+        /**
+         * @return the merged definition, {@code null} for manually registered singletons
+         */
+        @Nullable
+        BeanDefinition getBeanDefinition() {
+            return beanFactory.mergedDefinition(beanName);
+        }
+
+        boolean isPrimary() {
+            BeanDefinition bd = getBeanDefinition();
+            return bd != null && bd.isPrimary();
+        }
+
+        /**
+         * @return scope name, {@link BeanDefinition#SCOPE_SINGLETON} for manually registered singletons
+         */
+        String getScope() {
+            BeanDefinition bd = getBeanDefinition();
+            if (bd == null || bd.getScope() == null || bd.getScope().isEmpty()) {
+                return BeanDefinition.SCOPE_SINGLETON;
+            }
+            return bd.getScope();
+        }
+
+        /**
+         * Qualifier value as seen by autowiring: a {@link Qualifier} registered on the definition, else the annotation
+         * on the bean class or factory method
+         * @see org.springframework.beans.factory.annotation.QualifierAnnotationAutowireCandidateResolver
+         */
+        @Nullable
+        String getQualifier() {
+            BeanDefinition bd = getBeanDefinition();
+            if (bd instanceof AbstractBeanDefinition) {
+                AutowireCandidateQualifier qualifier = ((AbstractBeanDefinition) bd).getQualifier(Qualifier.class.getName());
+                if (qualifier != null) {
+                    Object value = qualifier.getAttribute(AutowireCandidateQualifier.VALUE_KEY);
+                    return value != null ? value.toString() : null;
+                }
+            }
+            Qualifier annotation = beanFactory.findAnnotationOnBean(beanName, Qualifier.class);
+            return annotation != null ? annotation.value() : null;
+        }
+
+        boolean hasQualifier(String value) {
+            return value.equals(getQualifier()) || value.equals(beanName);
+        }
+
+        T get() {
+            T bean = this.bean;
+            if (bean == null) {
+                synchronized (this) {
+                    bean = this.bean;
+                    if (bean == null) {
+                        bean = beanFactory.getBean(beanName, type);
+                        this.bean = bean;
+                    }
+                }
+            }
+            return bean;
+        }
+    }
+
+    interface Plugin {
+        int getId();
+    }
+
+    static class PluginImpl implements Plugin {
+        private final int id;
+
+        PluginImpl(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+    }
+
+    @Qualifier("special")
+    static class SpecialPlugin implements Plugin {
+        @Override
+        public int getId() {
+            return -1;
+        }
+    }
+}
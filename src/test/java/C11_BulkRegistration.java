@@ -0,0 +1,306 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionValidationException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.LookupOverride;
+import org.springframework.core.SimpleAliasRegistry;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class C11_BulkRegistration {
+    /**
+     * Bulk registration ends up with the same registry as the one-by-one loop
+     * @see DefaultListableBeanFactory#registerBeanDefinition(String, BeanDefinition)
+     */
+    @Test
+    void sameAsLoop() {
+        C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                .beanCount(1_000)
+                .autowireFanOut(2)
+                .childFraction(0.2)
+                .aliasChainLength(2);
+
+        DefaultListableBeanFactory loop = new DefaultListableBeanFactory();
+        C01_LargeContextGenerator.LargeContextGenerator.register(loop, shape);
+
+        BulkRegistrationBeanFactory bulk = new BulkRegistrationBeanFactory();
+        bulk.registerBeanDefinitions(C01_LargeContextGenerator.LargeContextGenerator.definitions(shape),
+                C01_LargeContextGenerator.LargeContextGenerator.aliases(shape));
+
+        assertThat(bulk.getBeanDefinitionNames()).containsExactly(loop.getBeanDefinitionNames());
+        String last = C01_LargeContextGenerator.LargeContextGenerator.nodeName(999);
+        assertThat(bulk.getAliases(last)).containsExactlyInAnyOrder(loop.getAliases(last));
+        assertThat(bulk.getBean(C01_LargeContextGenerator.LargeContextGenerator.aliasName(999, 2)))
+                .isInstanceOf(C01_LargeContextGenerator.Node2.class);
+    }
+
+    /**
+     * Invalid definitions, overrides and alias conflicts are all reported in one exception, nothing is registered
+     */
+    @Test
+    void conflicts() {
+        BulkRegistrationBeanFactory bf = new BulkRegistrationBeanFactory();
+        bf.setAllowBeanDefinitionOverriding(false);
+        bf.registerBeanDefinition("existing", leafDefinition());
+        bf.registerAlias("existing", "existingAlias");
+
+        GenericBeanDefinition invalid = leafDefinition();
+        invalid.setFactoryMethodName("create");
+        invalid.getMethodOverrides().addOverride(new LookupOverride("lookup", null));
+
+        Map<String, BeanDefinition> definitions = new LinkedHashMap<>();
+        definitions.put("fresh", leafDefinition());
+        definitions.put("existing", leafDefinition());
+        definitions.put("invalid", invalid);
+        Map<String, String> aliases = new LinkedHashMap<>();
+        aliases.put("existingAlias", "fresh");
+        aliases.put("fresh", "existing");
+        aliases.put("loop1", "loop2");
+        aliases.put("loop2", "loop1");
+
+        assertThatThrownBy(() -> bf.registerBeanDefinitions(definitions, aliases))
+                .isInstanceOf(BeanDefinitionStoreException.class)
+                .hasMessageContaining("'existing'")
+                .hasMessageContaining("'invalid'")
+                .hasMessageContaining("'existingAlias'")
+                .hasMessageContaining("'fresh'")
+                .hasMessageContaining("'loop1'")
+                .satisfies(ex -> assertThat(ex.getSuppressed()).hasAtLeastOneElementOfType(BeanDefinitionValidationException.class));
+        assertThat(bf.getBeanDefinitionNames()).containsExactly("existing");
+        assertThat(bf.isAlias("loop1")).isFalse();
+    }
+
+    /**
+     * Definitions registered after creation started are visible to type lookups of a frozen configuration
+     */
+    @Test
+    void afterCreationStarted() {
+        BulkRegistrationBeanFactory bf = new BulkRegistrationBeanFactory();
+        bf.registerBeanDefinition("existing", leafDefinition());
+        bf.freezeConfiguration();
+        bf.getBean("existing");
+        assertThat(bf.getBeanNamesForType(C01_LargeContextGenerator.Leaf0.class)).containsExactly("existing");
+
+        bf.registerBeanDefinitions(Collections.singletonMap("added", leafDefinition()), Collections.singletonMap("alias", "added"));
+
+        assertThat(bf.getBeanNamesForType(C01_LargeContextGenerator.Leaf0.class)).containsExactly("existing", "added");
+        assertThat(bf.getBean("alias")).isSameAs(bf.getBean("added"));
+    }
+
+    /**
+     * One-by-one registration against bulk registration once bean creation has started, when every
+     * {@code registerBeanDefinition} copies the names list. Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void registrationBenchmark() {
+        for (int beanCount : new int[] { 1_000, 10_000, 100_000 }) {
+            C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                    .beanCount(beanCount)
+                    .aliasChainLength(1);
+            Map<String, AbstractBeanDefinition> definitions = C01_LargeContextGenerator.LargeContextGenerator.definitions(shape);
+            Map<String, String> aliases = C01_LargeContextGenerator.LargeContextGenerator.aliases(shape);
+
+            long loop = C01_LargeContextGenerator.Bench.measure(3, i -> {
+                DefaultListableBeanFactory bf = startedFactory(new DefaultListableBeanFactory());
+                definitions.forEach(bf::registerBeanDefinition);
+                aliases.forEach((alias, name) -> bf.registerAlias(name, alias));
+                return bf;
+            });
+            long bulk = C01_LargeContextGenerator.Bench.measure(3, i -> {
+                BulkRegistrationBeanFactory bf = startedFactory(new BulkRegistrationBeanFactory());
+                bf.registerBeanDefinitions(definitions, aliases);
+                return bf;
+            });
+            System.out.printf("%,d beans: one by one %,d ms, bulk %,d ms%n", beanCount, loop / 1_000_000, bulk / 1_000_000);
+        }
+    }
+
+    private static <T extends DefaultListableBeanFactory> T startedFactory(T bf) {
+        bf.registerBeanDefinition("started", leafDefinition());
+        bf.getBean("started");
+        return bf;
+    }
+
+    private static GenericBeanDefinition leafDefinition() {
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(C01_LargeContextGenerator.Leaf0.class);
+        return bd;
+    }
+
+    /**
+     * Factory registering a whole set of definitions and aliases at once. Definitions are validated in parallel,
+     * conflicts with the registry and within the set are collected in a single pass, then everything is published
+     * under the registry lock with one copy of the names list and one cache invalidation.
+     * <p>The registry state of {@link DefaultListableBeanFactory} is private, it is reached by reflection.
+     */
+    static class BulkRegistrationBeanFactory extends DefaultListableBeanFactory {
+        private static final Field BEAN_DEFINITION_MAP = field(DefaultListableBeanFactory.class, "beanDefinitionMap");
+        private static final Field BEAN_DEFINITION_NAMES = field(DefaultListableBeanFactory.class, "beanDefinitionNames");
+        private static final Field FROZEN_BEAN_DEFINITION_NAMES = field(DefaultListableBeanFactory.class, "frozenBeanDefinitionNames");
+        private static final Field MANUAL_SINGLETON_NAMES = field(DefaultListableBeanFactory.class, "manualSingletonNames");
+        private static final Field ALIAS_MAP = field(SimpleAliasRegistry.class, "aliasMap");
+        private static final Method CLEAR_BY_TYPE_CACHE = method(DefaultListableBeanFactory.class, "clearByTypeCache");
+
+        /**
+         * @param definitions definitions by bean name, registered in iteration order
+         * @param aliases bean names by alias, aliases may point to other aliases
+         * @throws BeanDefinitionStoreException listing every invalid definition and conflict, nothing is registered then
+         */
+        @SuppressWarnings("unchecked")
+        void registerBeanDefinitions(Map<String, ? extends BeanDefinition> definitions, Map<String, String> aliases)
+                throws BeanDefinitionStoreException {
+            Queue<BeanDefinitionValidationException> invalid = new ConcurrentLinkedQueue<>();
+            Queue<String> problems = new ConcurrentLinkedQueue<>();
+            definitions.entrySet().parallelStream().forEach(entry -> {
+                if (!StringUtils.hasText(entry.getKey())) {
+                    problems.add("Bean name must not be empty");
+                } else if (entry.getValue() instanceof AbstractBeanDefinition) {
+                    try {
+                        ((AbstractBeanDefinition) entry.getValue()).validate();
+                    } catch (BeanDefinitionValidationException ex) {
+                        invalid.add(ex);
+                        problems.add("Validation of bean definition '" + entry.getKey() + "' failed: " + ex.getMessage());
+                    }
+                }
+            });
+
+            Map<String, BeanDefinition> beanDefinitionMap = (Map<String, BeanDefinition>) ReflectionUtils.getField(BEAN_DEFINITION_MAP, this);
+            Map<String, String> aliasMap = (Map<String, String>) ReflectionUtils.getField(ALIAS_MAP, this);
+            Set<String> overridden = new LinkedHashSet<>();
+            synchronized (Objects.requireNonNull(beanDefinitionMap)) {
+                synchronized (Objects.requireNonNull(aliasMap)) {
+                    findConflicts(definitions, aliases, beanDefinitionMap, aliasMap, overridden, problems);
+                    if (!problems.isEmpty()) {
+                        BeanDefinitionStoreException ex = new BeanDefinitionStoreException(
+                                "Bulk registration of " + definitions.size() + " bean definitions and " + aliases.size()
+                                        + " aliases failed: " + String.join("; ", problems));
+                        invalid.forEach(ex::addSuppressed);
+                        throw ex;
+                    }
+
+                    beanDefinitionMap.putAll(definitions);
+                    List<String> beanDefinitionNames = (List<String>) ReflectionUtils.getField(BEAN_DEFINITION_NAMES, this);
+                    List<String> updatedNames = new ArrayList<>(beanDefinitionNames.size() + definitions.size());
+                    updatedNames.addAll(beanDefinitionNames);
+                    for (String beanName : definitions.keySet()) {
+                        if (!overridden.contains(beanName)) {
+                            updatedNames.add(beanName);
+                        }
+                    }
+                    ReflectionUtils.setField(BEAN_DEFINITION_NAMES, this, updatedNames);
+                    removeManualSingletonNames(definitions.keySet());
+                    ReflectionUtils.setField(FROZEN_BEAN_DEFINITION_NAMES, this, null);
+
+                    aliases.forEach((alias, name) -> {
+                        if (!alias.equals(name)) {
+                            aliasMap.put(alias, name);
+                        }
+                    });
+                }
+            }
+
+            Set<String> reset = new LinkedHashSet<>(overridden);
+            for (String beanName : definitions.keySet()) {
+                if (containsSingleton(beanName)) {
+                    reset.add(beanName);
+                }
+            }
+            reset.forEach(this::resetBeanDefinition);
+            if (reset.isEmpty() && isConfigurationFrozen()) {
+                ReflectionUtils.invokeMethod(CLEAR_BY_TYPE_CACHE, this);
+            }
+        }
+
+        /**
+         * The checks of {@code registerBeanDefinition} and {@code registerAlias} against the registry and the set,
+         * plus aliases shadowing bean names, which would otherwise go unnoticed
+         */
+        private void findConflicts(Map<String, ? extends BeanDefinition> definitions, Map<String, String> aliases,
+                                   Map<String, BeanDefinition> beanDefinitionMap, Map<String, String> aliasMap,
+                                   Set<String> overridden, Collection<String> problems) {
+            for (Map.Entry<String, ? extends BeanDefinition> entry : definitions.entrySet()) {
+                String beanName = entry.getKey();
+                BeanDefinition existing = beanDefinitionMap.get(beanName);
+                if (existing != null) {
+                    if (!isAllowBeanDefinitionOverriding()) {
+                        problems.add("Bean definition '" + beanName + "' conflicts with existing definition " + existing);
+                    } else {
+                        overridden.add(beanName);
+                    }
+                }
+                if (aliasMap.containsKey(beanName) || aliases.containsKey(beanName)) {
+                    problems.add("Bean name '" + beanName + "' is already used as an alias");
+                }
+            }
+            for (Map.Entry<String, String> entry : aliases.entrySet()) {
+                String alias = entry.getKey();
+                String registeredName = aliasMap.get(alias);
+                if (registeredName != null && !registeredName.equals(entry.getValue()) && !allowAliasOverriding()) {
+                    problems.add("Alias '" + alias + "' is already registered for bean name '" + registeredName + "'");
+                }
+                if (beanDefinitionMap.containsKey(alias) && !definitions.containsKey(alias)) {
+                    problems.add("Alias '" + alias + "' is already used as a bean name");
+                }
+                // follow the chain through the set and the registry, it must not come back to the alias
+                String name = entry.getValue();
+                for (int hops = 0; name != null && hops <= aliases.size() + aliasMap.size(); hops++) {
+                    if (name.equals(alias)) {
+                        problems.add("Alias '" + alias + "' resolves to itself");
+                        break;
+                    }
+                    name = aliases.containsKey(name) ? aliases.get(name) : aliasMap.get(name);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void removeManualSingletonNames(Set<String> beanNames) {
+            Set<String> manualSingletonNames = (Set<String>) ReflectionUtils.getField(MANUAL_SINGLETON_NAMES, this);
+            if (manualSingletonNames != null && !Collections.disjoint(manualSingletonNames, beanNames)) {
+                Set<String> updatedSingletons = new LinkedHashSet<>(manualSingletonNames);
+                updatedSingletons.removeAll(beanNames);
+                ReflectionUtils.setField(MANUAL_SINGLETON_NAMES, this, updatedSingletons);
+            }
+        }
+
+        private static Field field(Class<?> type, String name) {
+            Field field = ReflectionUtils.findField(type, name);
+            if (field == null) {
+                throw new IllegalStateException("No field '" + name + "' on " + type.getName());
+            }
+            ReflectionUtils.makeAccessible(field);
+            return field;
+        }
+
+        private static Method method(Class<?> type, String name) {
+            Method method = ReflectionUtils.findMethod(type, name);
+            if (method == null) {
+                throw new IllegalStateException("No method '" + name + "' on " + type.getName());
+            }
+            ReflectionUtils.makeAccessible(method);
+            return method;
+        }
+    }
+}
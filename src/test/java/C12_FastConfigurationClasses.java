@@ -0,0 +1,752 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.asm.ClassReader;
+import org.springframework.asm.ClassVisitor;
+import org.springframework.asm.Handle;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.SpringAsmInfo;
+import org.springframework.asm.Type;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.SimpleInstantiationStrategy;
+import org.springframework.cglib.core.ClassGenerator;
+import org.springframework.cglib.core.DefaultGeneratorStrategy;
+import org.springframework.cglib.core.DefaultNamingPolicy;
+import org.springframework.cglib.proxy.Callback;
+import org.springframework.cglib.proxy.Enhancer;
+import org.springframework.cglib.proxy.MethodInterceptor;
+import org.springframework.cglib.proxy.MethodProxy;
+import org.springframework.cglib.proxy.NoOp;
+import org.springframework.cglib.transform.ClassEmitterTransformer;
+import org.springframework.cglib.transform.TransformingClassGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ConfigurationClassPostProcessor;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.annotation.ScopedProxyMode;
+import org.springframework.core.Conventions;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C12_FastConfigurationClasses {
+    /**
+     * Inter-bean method calls resolve to the container's beans through per-method callbacks,
+     * see {@link B07_ConfigurationClassPostProcessor#test()}
+     * @see ConfigurationClassPostProcessor#enhanceConfigurationClasses(ConfigurableListableBeanFactory)
+     */
+    @Test
+    void enhancedConfiguration() {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(CallingConfig.class);
+        bf.registerBeanDefinition("config", bd);
+
+        FastConfigurationClassPostProcessor processor = new FastConfigurationClassPostProcessor();
+        processor.postProcessBeanFactory(bf);
+        bf.preInstantiateSingletons();
+
+        CallingConfig config = bf.getBean(CallingConfig.class);
+        Service service = bf.getBean("service", Service.class);
+
+        assertThat(processor.getEnhancedConfigurations()).containsExactly("config");
+        assertThat(config.getClass().getName()).contains("ByFastConfiguration");
+        assertThat(service.getRepository()).isSameAs(bf.getBean("repository"));
+        assertThat(service.getRequest()).isNotSameAs(bf.getBean("service", Service.class).getRequest());
+        assertThat(config.repository()).isSameAs(bf.getBean("repository"));
+        assertThat(bf.getDependentBeans("repository")).contains("service");
+        assertThat(config.getBeanFactory()).isSameAs(bf);
+    }
+
+    /**
+     * Method references count as inter-bean calls too
+     */
+    @Test
+    void methodReference() {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(ReferencingConfig.class);
+        bf.registerBeanDefinition("config", bd);
+
+        FastConfigurationClassPostProcessor processor = new FastConfigurationClassPostProcessor();
+        processor.postProcessBeanFactory(bf);
+
+        assertThat(processor.getEnhancedConfigurations()).containsExactly("config");
+        assertThat(bf.getBean("service", Service.class).getRepository()).isSameAs(bf.getBean("repository"));
+    }
+
+    /**
+     * A configuration whose {@code @Bean} methods never call each other is left as it is
+     */
+    @Test
+    void liteConfiguration() {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(ParameterConfig.class);
+        bf.registerBeanDefinition("config", bd);
+
+        FastConfigurationClassPostProcessor processor = new FastConfigurationClassPostProcessor();
+        processor.postProcessBeanFactory(bf);
+
+        assertThat(processor.getLiteConfigurations()).containsExactly("config");
+        assertThat(bf.getBean("config").getClass()).isEqualTo(ParameterConfig.class);
+        assertThat(bf.getBean("service", Service.class).getRepository()).isSameAs(bf.getBean("repository"));
+    }
+
+    /**
+     * A configuration calling the {@code @Bean} methods of an injected one keeps the latter enhanced
+     */
+    @Test
+    void crossConfigurationCall() {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(ParameterConfig.class);
+        bf.registerBeanDefinition("config", bd);
+        GenericBeanDefinition consumingBd = new GenericBeanDefinition();
+        consumingBd.setBeanClass(ConsumingConfig.class);
+        bf.registerBeanDefinition("consumingConfig", consumingBd);
+
+        FastConfigurationClassPostProcessor processor = new FastConfigurationClassPostProcessor();
+        processor.postProcessBeanFactory(bf);
+
+        assertThat(processor.getEnhancedConfigurations()).containsExactly("config");
+        assertThat(processor.getLiteConfigurations()).containsExactly("consumingConfig");
+        assertThat(bf.getBean("consumer", Service.class).getRepository()).isSameAs(bf.getBean("repository"));
+    }
+
+    /**
+     * Default {@code @Bean} methods calling each other in an interface count as inter-bean calls
+     */
+    @Test
+    void interfaceDefaultMethods() {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(DefaultMethodConfig.class);
+        bf.registerBeanDefinition("config", bd);
+
+        FastConfigurationClassPostProcessor processor = new FastConfigurationClassPostProcessor();
+        processor.postProcessBeanFactory(bf);
+
+        assertThat(processor.getEnhancedConfigurations()).containsExactly("config");
+        assertThat(bf.getBean("service", Service.class).getRepository()).isSameAs(bf.getBean("repository"));
+    }
+
+    /**
+     * Startup of enhanced and lite-eligible configurations, and inter-bean calls after startup,
+     * {@link ConfigurationClassPostProcessor} against {@link FastConfigurationClassPostProcessor}.
+     * Every startup uses a fresh factory. Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void configurationBenchmark() {
+        for (Class<?> configClass : new Class<?>[] { CallingConfig.class, ParameterConfig.class }) {
+            long standard = C01_LargeContextGenerator.Bench.measure(10_000,
+                    i -> startup(configClass, bf -> new ConfigurationClassPostProcessor().postProcessBeanFactory(bf)));
+            long fast = C01_LargeContextGenerator.Bench.measure(10_000,
+                    i -> startup(configClass, bf -> new FastConfigurationClassPostProcessor().postProcessBeanFactory(bf)));
+            System.out.printf("%s startup: %,d -> %,d ns%n", configClass.getSimpleName(), standard, fast);
+        }
+
+        CallingConfig standardConfig = startup(CallingConfig.class,
+                bf -> new ConfigurationClassPostProcessor().postProcessBeanFactory(bf)).getBean(CallingConfig.class);
+        CallingConfig fastConfig = startup(CallingConfig.class,
+                bf -> new FastConfigurationClassPostProcessor().postProcessBeanFactory(bf)).getBean(CallingConfig.class);
+        long standardCall = C01_LargeContextGenerator.Bench.measure(10_000_000, i -> standardConfig.repository());
+        long fastCall = C01_LargeContextGenerator.Bench.measure(10_000_000, i -> fastConfig.repository());
+        System.out.printf("inter-bean call after startup: %d -> %d ns%n", standardCall, fastCall);
+    }
+
+    private static DefaultListableBeanFactory startup(Class<?> configClass, Consumer<DefaultListableBeanFactory> processor) {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(configClass);
+        bf.registerBeanDefinition("config", bd);
+        processor.accept(bf);
+        bf.preInstantiateSingletons();
+        return bf;
+    }
+
+    /**
+     * Drop-in for {@link ConfigurationClassPostProcessor} that takes over the "full" {@code @Configuration} classes
+     * after parsing:
+     * <ul>
+     *     <li>classes whose {@code @Bean} methods are never invoked from the bytecode of any registered bean class
+     *     (checked with ASM, other configurations, super types, nested classes, lambdas and method references included)
+     *     are switched to lite mode and not subclassed</li>
+     *     <li>the others are enhanced with one callback per {@code @Bean} method holding the pre-resolved bean name,
+     *     existing singletons are returned without going through {@code getBean}</li>
+     * </ul>
+     * Scoped proxies and {@code FactoryBean} returning methods stay with the standard enhancer, as do classes that
+     * can't be subclassed. Calls into a lite configuration from classes that are no registered bean, such as helpers
+     * fetching it with {@code getBean}, are not intercepted.
+     */
+    static class FastConfigurationClassPostProcessor implements BeanDefinitionRegistryPostProcessor, PriorityOrdered {
+        static final String CONFIGURATION_CLASS_ATTRIBUTE =
+                Conventions.getQualifiedAttributeName(ConfigurationClassPostProcessor.class, "configurationClass");
+        private static final String CONFIGURATION_CLASS_FULL = "full";
+        private static final String CONFIGURATION_CLASS_LITE = "lite";
+
+        private static final Map<Class<?>, Class<?>> enhancedClasses = new ConcurrentReferenceHashMap<>();
+
+        private final ConfigurationClassPostProcessor delegate = new ConfigurationClassPostProcessor();
+
+        private final Set<BeanDefinitionRegistry> processedRegistries = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private final Set<String> liteConfigurations = new LinkedHashSet<>();
+        private final Set<String> enhancedConfigurations = new LinkedHashSet<>();
+
+        @Override
+        public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+            delegate.postProcessBeanDefinitionRegistry(registry);
+            processedRegistries.add(registry);
+            if (registry instanceof ConfigurableListableBeanFactory) {
+                optimizeConfigurationClasses((ConfigurableListableBeanFactory) registry);
+            }
+        }
+
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+            if (beanFactory instanceof BeanDefinitionRegistry && !processedRegistries.contains(beanFactory)) {
+                postProcessBeanDefinitionRegistry((BeanDefinitionRegistry) beanFactory);
+            }
+            // enhances what is still "full" and registers the ImportAware support
+            delegate.postProcessBeanFactory(beanFactory);
+        }
+
+        @Override
+        public int getOrder() {
+            return delegate.getOrder();
+        }
+
+        Set<String> getLiteConfigurations() {
+            return liteConfigurations;
+        }
+
+        Set<String> getEnhancedConfigurations() {
+            return enhancedConfigurations;
+        }
+
+        private void optimizeConfigurationClasses(ConfigurableListableBeanFactory beanFactory) {
+            Set<String> invokedMethods = null;
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition bd = beanFactory.getBeanDefinition(beanName);
+                if (!CONFIGURATION_CLASS_FULL.equals(bd.getAttribute(CONFIGURATION_CLASS_ATTRIBUTE))
+                        || !(bd instanceof AbstractBeanDefinition)) {
+                    continue;
+                }
+                AbstractBeanDefinition abd = (AbstractBeanDefinition) bd;
+                Class<?> configClass;
+                try {
+                    configClass = abd.resolveBeanClass(beanFactory.getBeanClassLoader());
+                } catch (ClassNotFoundException ex) {
+                    continue;
+                }
+                if (configClass == null) {
+                    continue;
+                }
+                List<Method> beanMethods = beanMethods(configClass);
+                if (!canEnhance(configClass, beanMethods)) {
+                    continue;
+                }
+                if (invokedMethods == null) {
+                    invokedMethods = invokedMethods(beanClassNames(beanFactory), beanFactory.getBeanClassLoader());
+                }
+                if (!callsBeanMethods(configClass, beanMethods, invokedMethods)) {
+                    abd.setAttribute(CONFIGURATION_CLASS_ATTRIBUTE, CONFIGURATION_CLASS_LITE);
+                    liteConfigurations.add(beanName);
+                } else {
+                    abd.setBeanClass(enhancedClasses.computeIfAbsent(configClass, c -> enhance(c, beanMethods)));
+                    abd.setAttribute(CONFIGURATION_CLASS_ATTRIBUTE, CONFIGURATION_CLASS_LITE);
+                    enhancedConfigurations.add(beanName);
+                }
+            }
+        }
+
+        private static List<Method> beanMethods(Class<?> configClass) {
+            return Arrays.stream(ReflectionUtils.getUniqueDeclaredMethods(configClass, ReflectionUtils.USER_DECLARED_METHODS))
+                    .filter(method -> AnnotatedElementUtils.hasAnnotation(method, Bean.class))
+                    .filter(method -> !Modifier.isStatic(method.getModifiers()))
+                    .collect(Collectors.toList());
+        }
+
+        private static boolean canEnhance(Class<?> configClass, List<Method> beanMethods) {
+            if (Modifier.isFinal(configClass.getModifiers())) {
+                return false;
+            }
+            for (Method method : beanMethods) {
+                if (Modifier.isFinal(method.getModifiers()) || Modifier.isPrivate(method.getModifiers())
+                        || FactoryBean.class.isAssignableFrom(method.getReturnType())) {
+                    return false;
+                }
+                Scope scope = AnnotatedElementUtils.findMergedAnnotation(method, Scope.class);
+                if (scope != null && scope.proxyMode() != ScopedProxyMode.DEFAULT && scope.proxyMode() != ScopedProxyMode.NO) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Whether any of the non-static {@code @Bean} methods is invoked or referenced on the configuration class, its
+         * super classes or interfaces. {@code invokedMethods} {@code null} stands for unreadable bytecode, which counts
+         * as a call.
+         */
+        static boolean callsBeanMethods(Class<?> configClass, List<Method> beanMethods, @Nullable Set<String> invokedMethods) {
+            if (invokedMethods == null) {
+                return true;
+            }
+            Set<String> owners = new LinkedHashSet<>();
+            for (Class<?> type = configClass; type != null && type != Object.class; type = type.getSuperclass()) {
+                owners.add(Type.getInternalName(type));
+            }
+            for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(configClass)) {
+                owners.add(Type.getInternalName(ifc));
+            }
+            for (Method method : beanMethods) {
+                String key = method.getName() + Type.getMethodDescriptor(method);
+                for (String owner : owners) {
+                    if (invokedMethods.contains(owner + '.' + key)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Bean classes and declared {@code @Bean} return types of all definitions, generated classes and primitives left
+         * out. Other configurations, which may call into a lite one through an injected instance, are among them.
+         */
+        private static Set<String> beanClassNames(ConfigurableListableBeanFactory beanFactory) {
+            Set<String> classNames = new LinkedHashSet<>();
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition bd = beanFactory.getBeanDefinition(beanName);
+                classNames.add(bd.getBeanClassName());
+                if (bd instanceof AnnotatedBeanDefinition) {
+                    MethodMetadata factoryMethod = ((AnnotatedBeanDefinition) bd).getFactoryMethodMetadata();
+                    if (factoryMethod != null) {
+                        classNames.add(factoryMethod.getReturnTypeName());
+                    }
+                }
+            }
+            classNames.removeIf(className -> className == null || className.contains(ClassUtils.CGLIB_CLASS_SEPARATOR)
+                    || className.endsWith("[]") || ClassUtils.resolvePrimitiveClassName(className) != null);
+            return classNames;
+        }
+
+        /**
+         * Non-static invocations and method handles as {@code owner.nameDescriptor}, found in the bytecode of the given
+         * classes, their super types and all classes nested in them. JDK classes are not read.
+         * @return {@code null} if some bytecode could not be read
+         */
+        @Nullable
+        static Set<String> invokedMethods(Set<String> classNames, @Nullable ClassLoader classLoader) {
+            if (classLoader == null) {
+                classLoader = ClassUtils.getDefaultClassLoader();
+            }
+            Set<String> invoked = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>();
+            for (String className : classNames) {
+                pending.add(ClassUtils.convertClassNameToResourcePath(className));
+            }
+            Set<String> scanned = new HashSet<>();
+            while (!pending.isEmpty()) {
+                String internalName = pending.poll();
+                if (internalName.startsWith("java/") || !scanned.add(internalName)) {
+                    continue;
+                }
+                try (InputStream in = classLoader.getResourceAsStream(internalName + ".class")) {
+                    if (in == null) {
+                        return null;
+                    }
+                    new ClassReader(in).accept(new MethodReferenceVisitor(internalName, invoked, pending),
+                            ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                } catch (IOException ex) {
+                    return null;
+                }
+            }
+            return invoked;
+        }
+
+        private static Class<?> enhance(Class<?> configClass, List<Method> beanMethods) {
+            Map<String, Integer> callbackIndex = new HashMap<>();
+            Callback[] callbacks = new Callback[beanMethods.size() + 2];
+            callbacks[0] = NoOp.INSTANCE;
+            BeanFactoryAwareCallback beanFactoryAware = new BeanFactoryAwareCallback(BeanFactoryAware.class.isAssignableFrom(configClass));
+            callbacks[1] = beanFactoryAware;
+            callbackIndex.put("setBeanFactory" + Type.getMethodDescriptor(ReflectionUtils.findMethod(BeanFactoryAware.class,
+                    "setBeanFactory", BeanFactory.class)), 1);
+            BeanMethodCallback[] beanMethodCallbacks = new BeanMethodCallback[beanMethods.size()];
+            for (int i = 0; i < beanMethods.size(); i++) {
+                Method method = beanMethods.get(i);
+                beanMethodCallbacks[i] = new BeanMethodCallback(method, beanNameFor(method));
+                callbacks[i + 2] = beanMethodCallbacks[i];
+                callbackIndex.put(method.getName() + Type.getMethodDescriptor(method), i + 2);
+            }
+
+            Enhancer enhancer = new Enhancer();
+            enhancer.setSuperclass(configClass);
+            enhancer.setInterfaces(new Class<?>[] { FastEnhancedConfiguration.class });
+            enhancer.setUseFactory(false);
+            enhancer.setUseCache(false);
+            enhancer.setClassLoader(configClass.getClassLoader());
+            enhancer.setNamingPolicy(new DefaultNamingPolicy() {
+                @Override
+                protected String getTag() {
+                    return "ByFastConfiguration";
+                }
+            });
+            enhancer.setStrategy(new BeanFactoryFieldStrategy());
+            enhancer.setCallbackFilter(method -> callbackIndex.getOrDefault(method.getName() + Type.getMethodDescriptor(method), 0));
+            Class<?>[] callbackTypes = new Class<?>[callbacks.length];
+            Arrays.fill(callbackTypes, MethodInterceptor.class);
+            callbackTypes[0] = NoOp.class;
+            enhancer.setCallbackTypes(callbackTypes);
+            Class<?> enhancedClass = enhancer.createClass();
+
+            Field beanFactoryField = ReflectionUtils.findField(enhancedClass, BeanFactoryFieldStrategy.BEAN_FACTORY_FIELD);
+            beanFactoryAware.beanFactoryField = beanFactoryField;
+            for (BeanMethodCallback callback : beanMethodCallbacks) {
+                callback.beanFactoryField = beanFactoryField;
+            }
+            Enhancer.registerStaticCallbacks(enhancedClass, callbacks);
+            return enhancedClass;
+        }
+    }
+
+    /**
+     * Implemented by the enhanced classes, the bean factory callback fills the generated field
+     */
+    interface FastEnhancedConfiguration extends BeanFactoryAware {}
+
+    private static final Map<Method, String> beanNames = new ConcurrentReferenceHashMap<>();
+
+    /**
+     * Primary bean name of a {@code @Bean} method, as {@code BeanAnnotationHelper} determines it
+     */
+    static String beanNameFor(Method method) {
+        return beanNames.computeIfAbsent(method, m -> {
+            Bean bean = AnnotatedElementUtils.findMergedAnnotation(m, Bean.class);
+            return bean != null && bean.name().length > 0 ? bean.name()[0] : m.getName();
+        });
+    }
+
+    /**
+     * Adds a public {@code BeanFactory} field to the generated class, like the standard enhancer does
+     */
+    static class BeanFactoryFieldStrategy extends DefaultGeneratorStrategy {
+        static final String BEAN_FACTORY_FIELD = "$$fastBeanFactory";
+
+        @Override
+        protected ClassGenerator transform(ClassGenerator cg) throws Exception {
+            ClassEmitterTransformer transformer = new ClassEmitterTransformer() {
+                @Override
+                public void end_class() {
+                    declare_field(Opcodes.ACC_PUBLIC, BEAN_FACTORY_FIELD, Type.getType(BeanFactory.class), null);
+                    super.end_class();
+                }
+            };
+            return new TransformingClassGenerator(cg, transformer);
+        }
+    }
+
+    static class BeanFactoryAwareCallback implements MethodInterceptor {
+        private final boolean callSuper;
+        volatile Field beanFactoryField;
+
+        BeanFactoryAwareCallback(boolean callSuper) {
+            this.callSuper = callSuper;
+        }
+
+        @Override
+        public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            beanFactoryField.set(obj, args[0]);
+            return callSuper ? proxy.invokeSuper(obj, args) : null;
+        }
+    }
+
+    /**
+     * Callback of a single {@code @Bean} method. The method is only executed while the container invokes it
+     * as factory method, every other call returns the container's bean.
+     * @see org.springframework.context.annotation.ConfigurationClassEnhancer
+     */
+    static class BeanMethodCallback implements MethodInterceptor {
+        private final Method beanMethod;
+        private final String beanName;
+        volatile Field beanFactoryField;
+
+        BeanMethodCallback(Method beanMethod, String beanName) {
+            this.beanMethod = beanMethod;
+            this.beanName = beanName;
+        }
+
+        @Override
+        public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            ConfigurableBeanFactory beanFactory = (ConfigurableBeanFactory) beanFactoryField.get(obj);
+            Method currentlyInvoked = SimpleInstantiationStrategy.getCurrentlyInvokedFactoryMethod();
+            if (beanFactory == null || isSameMethod(currentlyInvoked)) {
+                return proxy.invokeSuper(obj, args);
+            }
+            if (args.length == 0) {
+                Object singleton = beanFactory.getSingleton(beanName);
+                if (singleton != null && !(singleton instanceof FactoryBean)) {
+                    registerDependentBean(beanFactory, currentlyInvoked);
+                    return adapt(singleton);
+                }
+            }
+            return resolveBeanReference(beanFactory, args, currentlyInvoked);
+        }
+
+        /**
+         * {@code BeanMethodInterceptor#resolveBeanReference}
+         */
+        @Nullable
+        private Object resolveBeanReference(ConfigurableBeanFactory beanFactory, Object[] args, @Nullable Method currentlyInvoked) {
+            boolean alreadyInCreation = beanFactory.isCurrentlyInCreation(beanName);
+            try {
+                if (alreadyInCreation) {
+                    beanFactory.setCurrentlyInCreation(beanName, false);
+                }
+                boolean useArgs = args.length > 0 && !beanFactory.isSingleton(beanName);
+                Object bean = useArgs ? beanFactory.getBean(beanName, args) : beanFactory.getBean(beanName);
+                registerDependentBean(beanFactory, currentlyInvoked);
+                return adapt(bean);
+            } finally {
+                if (alreadyInCreation) {
+                    beanFactory.setCurrentlyInCreation(beanName, true);
+                }
+            }
+        }
+
+        private void registerDependentBean(ConfigurableBeanFactory beanFactory, @Nullable Method currentlyInvoked) {
+            if (currentlyInvoked != null) {
+                beanFactory.registerDependentBean(beanName, beanNameFor(currentlyInvoked));
+            }
+        }
+
+        @Nullable
+        private Object adapt(Object bean) {
+            if (ClassUtils.isAssignableValue(beanMethod.getReturnType(), bean)) {
+                return bean;
+            }
+            if (bean.equals(null)) {
+                return null;
+            }
+            throw new IllegalStateException("@Bean method " + beanMethod.getDeclaringClass().getSimpleName() + "."
+                    + beanMethod.getName() + " called as bean reference for type [" + beanMethod.getReturnType().getName()
+                    + "] but overridden by non-compatible bean instance of type [" + bean.getClass().getName() + "]");
+        }
+
+        private boolean isSameMethod(@Nullable Method currentlyInvoked) {
+            return currentlyInvoked != null && currentlyInvoked.getName().equals(beanMethod.getName())
+                    && Arrays.equals(currentlyInvoked.getParameterTypes(), beanMethod.getParameterTypes());
+        }
+    }
+
+    /**
+     * Collects non-static invocations and method handles, queues super types and nested classes
+     */
+    static class MethodReferenceVisitor extends ClassVisitor {
+        private final String internalName;
+        private final Set<String> invoked;
+        private final Deque<String> pending;
+
+        MethodReferenceVisitor(String internalName, Set<String> invoked, Deque<String> pending) {
+            super(SpringAsmInfo.ASM_VERSION);
+            this.internalName = internalName;
+            this.invoked = invoked;
+            this.pending = pending;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, @Nullable String superName,
+                          String[] interfaces) {
+            if (superName != null) {
+                pending.add(superName);
+            }
+            Collections.addAll(pending, interfaces);
+        }
+
+        @Override
+        public void visitInnerClass(String name, @Nullable String outerName, @Nullable String innerName, int access) {
+            // member, local and anonymous classes declared in this class
+            if (name.startsWith(internalName + "$")) {
+                pending.add(name);
+            }
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(SpringAsmInfo.ASM_VERSION) {
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    if (opcode != Opcodes.INVOKESTATIC) {
+                        invoked.add(owner + '.' + name + descriptor);
+                    }
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                                   Object... bootstrapMethodArguments) {
+                    for (Object argument : bootstrapMethodArguments) {
+                        if (argument instanceof Handle) {
+                            Handle handle = (Handle) argument;
+                            if (handle.getTag() != Opcodes.H_INVOKESTATIC) {
+                                invoked.add(handle.getOwner() + '.' + handle.getName() + handle.getDesc());
+                            }
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    interface Repository {}
+
+    static class RepositoryImpl implements Repository {}
+
+    static class Request {}
+
+    static class Service {
+        private final Repository repository;
+        private final Request request;
+
+        Service(Repository repository, Request request) {
+            this.repository = repository;
+            this.request = request;
+        }
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+    }
+
+    @Configuration
+    static class CallingConfig implements BeanFactoryAware {
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        public BeanFactory getBeanFactory() {
+            return beanFactory;
+        }
+
+        @Bean
+        public Repository repository() {
+            return new RepositoryImpl();
+        }
+
+        @Bean
+        @Scope(BeanDefinition.SCOPE_PROTOTYPE)
+        public Request request() {
+            return new Request();
+        }
+
+        @Bean
+        @Scope(BeanDefinition.SCOPE_PROTOTYPE)
+        public Service service() {
+            return new Service(repository(), request());
+        }
+    }
+
+    @Configuration
+    static class ReferencingConfig {
+        @Bean
+        public Repository repository() {
+            return new RepositoryImpl();
+        }
+
+        @Bean
+        public Service service() {
+            Supplier<Repository> repository = this::repository;
+            return new Service(repository.get(), null);
+        }
+    }
+
+    @Configuration
+    static class ParameterConfig {
+        @Bean
+        public Repository repository() {
+            return new RepositoryImpl();
+        }
+
+        @Bean
+        public Service service(Repository repository) {
+            return new Service(repository, null);
+        }
+    }
+
+    @Configuration
+    static class ConsumingConfig {
+        @Bean
+        public Service consumer(ParameterConfig config) {
+            return new Service(config.repository(), null);
+        }
+    }
+
+    interface RepositoryDefaults {
+        @Bean
+        default Repository repository() {
+            return new RepositoryImpl();
+        }
+
+        @Bean
+        default Service service() {
+            return new Service(repository(), null);
+        }
+    }
+
+    @Configuration
+    static class DefaultMethodConfig implements RepositoryDefaults {
+    }
+}
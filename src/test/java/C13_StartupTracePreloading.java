@@ -0,0 +1,336 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.CannotLoadBeanClassException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C13_StartupTracePreloading {
+    private static final int SLOW_CLASSES = 4;
+
+    /**
+     * Record the bean classes of a startup, then replay the trace in a fresh class loader: the static initializers
+     * run on the preload threads while the creating thread works through the beans
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#resolveBeanClass(RootBeanDefinition, String, Class[])
+     */
+    @Test
+    void recordAndReplay(@TempDir Path dir) throws Exception {
+        Path trace = dir.resolve("startup.trace");
+
+        long recordedNanos;
+        try (URLClassLoader loader = isolatedLoader()) {
+            StartupTraceBeanFactory bf = slowFactory(loader);
+            bf.recordTo(trace);
+            long start = System.nanoTime();
+            bf.preInstantiateSingletons();
+            recordedNanos = System.nanoTime() - start;
+        }
+        assertThat(Files.readAllLines(trace)).containsSubsequence(slowClassNames());
+
+        try (URLClassLoader loader = isolatedLoader()) {
+            StartupTraceBeanFactory bf = slowFactory(loader);
+            bf.replayFrom(trace, SLOW_CLASSES);
+            long start = System.nanoTime();
+            bf.preInstantiateSingletons();
+            long replayedNanos = System.nanoTime() - start;
+
+            ReplayReport report = bf.getReplayReport();
+            System.out.println(report);
+            assertThat(report.getPreloaded()).isGreaterThanOrEqualTo(SLOW_CLASSES);
+            assertThat(report.getFailed()).isZero();
+            assertThat(report.getSavedNanos()).isPositive();
+            assertThat(replayedNanos).isLessThan(recordedNanos);
+        }
+    }
+
+    /**
+     * A missing trace means a normal startup
+     */
+    @Test
+    void missingTrace(@TempDir Path dir) throws Exception {
+        try (URLClassLoader loader = isolatedLoader()) {
+            StartupTraceBeanFactory bf = slowFactory(loader);
+            bf.replayFrom(dir.resolve("missing.trace"), 2);
+            bf.preInstantiateSingletons();
+
+            assertThat(bf.getReplayReport().getPreloaded()).isZero();
+            assertThat(bf.getBeanDefinitionCount()).isEqualTo(SLOW_CLASSES);
+        }
+    }
+
+    private static StartupTraceBeanFactory slowFactory(ClassLoader loader) {
+        StartupTraceBeanFactory bf = new StartupTraceBeanFactory();
+        bf.setBeanClassLoader(loader);
+        List<String> classNames = slowClassNames();
+        for (int i = 0; i < classNames.size(); i++) {
+            GenericBeanDefinition bd = new GenericBeanDefinition();
+            bd.setBeanClassName(classNames.get(i));
+            bf.registerBeanDefinition("slow" + i, bd);
+        }
+        return bf;
+    }
+
+    private static List<String> slowClassNames() {
+        return Arrays.asList(SlowInit0.class.getName(), SlowInit1.class.getName(),
+                SlowInit2.class.getName(), SlowInit3.class.getName());
+    }
+
+    /**
+     * Loader seeing the test classes but not this test's class loader, so the slow classes are loaded and
+     * initialized again
+     */
+    private static URLClassLoader isolatedLoader() {
+        URL testClasses = C13_StartupTracePreloading.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[] { testClasses }, ClassLoader.getPlatformClassLoader());
+    }
+
+    /**
+     * Factory that can record which classes a startup touches and replay that trace on the next startup.
+     * <p>Recording writes the bean classes in the order they are resolved, along with the user classes and
+     * interfaces of proxies as post-processors create them. Generated classes can't be loaded by name in another run,
+     * the classes they are generated from can.
+     * <p>Replaying loads and initializes the traced classes on background threads in trace order, ahead of the
+     * creating thread. The {@link ReplayReport} estimates the time saved from when each class finished preloading
+     * and when the creating thread first asked for it.
+     */
+    static class StartupTraceBeanFactory extends DefaultListableBeanFactory {
+        @Nullable
+        private Path recordTo;
+        private final Set<String> recorded = Collections.synchronizedSet(new LinkedHashSet<>());
+
+        @Nullable
+        private Path replayFrom;
+        private int preloadThreads;
+        private final Map<String, long[]> preloads = new ConcurrentHashMap<>();
+        private final Map<String, Long> requests = new ConcurrentHashMap<>();
+        private final AtomicInteger failed = new AtomicInteger();
+        private ReplayReport replayReport = new ReplayReport(0, 0, 0, 0);
+
+        void recordTo(Path trace) {
+            this.recordTo = trace;
+        }
+
+        void replayFrom(Path trace, int preloadThreads) {
+            this.replayFrom = trace;
+            this.preloadThreads = preloadThreads;
+        }
+
+        ReplayReport getReplayReport() {
+            return replayReport;
+        }
+
+        @Override
+        public void preInstantiateSingletons() {
+            ExecutorService preloader = replayFrom != null ? startPreloading(replayFrom) : null;
+            long start = System.nanoTime();
+            try {
+                super.preInstantiateSingletons();
+            } finally {
+                if (preloader != null) {
+                    preloader.shutdownNow();
+                    replayReport = report(start, System.nanoTime());
+                }
+            }
+            if (recordTo != null) {
+                writeTrace(recordTo);
+            }
+        }
+
+        @Override
+        @Nullable
+        protected Class<?> resolveBeanClass(RootBeanDefinition mbd, String beanName, Class<?>... typesToMatch)
+                throws CannotLoadBeanClassException {
+            String className = mbd.getBeanClassName();
+            if (className != null) {
+                if (recordTo != null) {
+                    recorded.add(className);
+                }
+                if (replayFrom != null) {
+                    requests.putIfAbsent(className, System.nanoTime());
+                }
+            }
+            return super.resolveBeanClass(mbd, beanName, typesToMatch);
+        }
+
+        @Override
+        public Object applyBeanPostProcessorsAfterInitialization(Object existingBean, String beanName) {
+            Object result = super.applyBeanPostProcessorsAfterInitialization(existingBean, beanName);
+            if (recordTo != null && result != null && result.getClass() != existingBean.getClass()) {
+                Class<?> proxyClass = result.getClass();
+                if (!Proxy.isProxyClass(proxyClass)) {
+                    recorded.add(ClassUtils.getUserClass(proxyClass).getName());
+                }
+                for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(proxyClass)) {
+                    recorded.add(ifc.getName());
+                }
+            }
+            return result;
+        }
+
+        private ExecutorService startPreloading(Path trace) {
+            List<String> classNames = readTrace(trace);
+            ClassLoader classLoader = getBeanClassLoader();
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService preloader = Executors.newFixedThreadPool(Math.max(1, preloadThreads), runnable -> {
+                Thread thread = new Thread(runnable, "startup-preload-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (String className : classNames) {
+                preloader.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        Class.forName(className, true, classLoader);
+                        preloads.put(className, new long[] { start, System.nanoTime() });
+                    } catch (ClassNotFoundException | LinkageError ex) {
+                        // stale trace entry, the creating thread reports real problems
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+            return preloader;
+        }
+
+        private ReplayReport report(long startupStart, long startupEnd) {
+            long saved = 0;
+            for (Map.Entry<String, long[]> entry : preloads.entrySet()) {
+                long preloadStart = entry.getValue()[0];
+                long preloadEnd = entry.getValue()[1];
+                Long request = requests.get(entry.getKey());
+                long ready = request != null ? request : startupEnd;
+                if (ready >= preloadEnd) {
+                    saved += preloadEnd - preloadStart;
+                } else if (ready > preloadStart) {
+                    saved += ready - preloadStart;
+                }
+            }
+            return new ReplayReport(preloads.size(), failed.get(), startupEnd - startupStart, saved);
+        }
+
+        private static List<String> readTrace(Path trace) {
+            if (!Files.isReadable(trace)) {
+                return Collections.emptyList();
+            }
+            try {
+                return Files.readAllLines(trace, StandardCharsets.UTF_8).stream()
+                        .map(String::trim)
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .collect(Collectors.toList());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not read startup trace " + trace, ex);
+            }
+        }
+
+        private void writeTrace(Path trace) {
+            List<String> lines = new ArrayList<>();
+            lines.add("# classes touched by preInstantiateSingletons, in order");
+            synchronized (recorded) {
+                lines.addAll(recorded);
+            }
+            try {
+                Files.write(trace, lines, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not write startup trace " + trace, ex);
+            }
+        }
+    }
+
+    static final class ReplayReport {
+        private final int preloaded;
+        private final int failed;
+        private final long startupNanos;
+        private final long savedNanos;
+
+        ReplayReport(int preloaded, int failed, long startupNanos, long savedNanos) {
+            this.preloaded = preloaded;
+            this.failed = failed;
+            this.startupNanos = startupNanos;
+            this.savedNanos = savedNanos;
+        }
+
+        int getPreloaded() {
+            return preloaded;
+        }
+
+        int getFailed() {
+            return failed;
+        }
+
+        long getStartupNanos() {
+            return startupNanos;
+        }
+
+        /**
+         * Preloading time the creating thread did not have to spend, an estimate
+         */
+        long getSavedNanos() {
+            return savedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("preloaded %d classes (%d failed), startup %,d ms, saved ~%,d ms", preloaded, failed,
+                    TimeUnit.NANOSECONDS.toMillis(startupNanos), TimeUnit.NANOSECONDS.toMillis(savedNanos));
+        }
+    }
+
+    static class SlowInit0 {
+        static {
+            SlowStatics.sleep();
+        }
+    }
+
+    static class SlowInit1 {
+        static {
+            SlowStatics.sleep();
+        }
+    }
+
+    static class SlowInit2 {
+        static {
+            SlowStatics.sleep();
+        }
+    }
+
+    static class SlowInit3 {
+        static {
+            SlowStatics.sleep();
+        }
+    }
+
+    static class SlowStatics {
+        static void sleep() {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.ResolvableType;
+import org.springframework.lang.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C14_CachedTypeMatching {
+    private static final ResolvableType ORDER_REPOSITORY = ResolvableType.forClassWithGenerics(Repository.class, Order.class);
+    private static final ResolvableType CUSTOMER_REPOSITORY = ResolvableType.forClassWithGenerics(Repository.class, Customer.class);
+    private static final ResolvableType PRODUCT_REPOSITORY = ResolvableType.forClassWithGenerics(Repository.class, Product.class);
+
+    /**
+     * Generic lookups give the same answers as a plain factory, the second round comes from the cache
+     * @see DefaultListableBeanFactory#getBeanNamesForType(ResolvableType, boolean, boolean)
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#isTypeMatch(String, ResolvableType)
+     */
+    @Test
+    void sameAsPlainFactory() {
+        DefaultListableBeanFactory plain = registerRepositories(new DefaultListableBeanFactory(), 1);
+        CachingTypeMatchBeanFactory cached = registerRepositories(new CachingTypeMatchBeanFactory(), 1);
+        plain.freezeConfiguration();
+        cached.freezeConfiguration();
+
+        for (int round = 0; round < 2; round++) {
+            for (ResolvableType type : new ResolvableType[] { ORDER_REPOSITORY, CUSTOMER_REPOSITORY, PRODUCT_REPOSITORY,
+                    ResolvableType.forClass(Repository.class), ResolvableType.forClass(FactoryBean.class) }) {
+                assertThat(cached.getBeanNamesForType(type)).containsExactly(plain.getBeanNamesForType(type));
+                for (String beanName : plain.getBeanDefinitionNames()) {
+                    assertThat(cached.isTypeMatch(beanName, type)).isEqualTo(plain.isTypeMatch(beanName, type));
+                    assertThat(cached.isTypeMatch("&" + beanName, type)).isEqualTo(plain.isTypeMatch("&" + beanName, type));
+                }
+            }
+        }
+        assertThat(cached.getBeanNamesForType(CUSTOMER_REPOSITORY)).containsExactly("customerRepository0");
+        assertThat(cached.getType("customerRepository0")).isEqualTo(CustomerRepository.class);
+        assertThat(cached.getHits()).isPositive();
+    }
+
+    /**
+     * New and replaced definitions, manual singletons and created singletons are seen by the next lookup
+     */
+    @Test
+    void invalidation() {
+        CachingTypeMatchBeanFactory bf = registerRepositories(new CachingTypeMatchBeanFactory(), 1);
+        bf.freezeConfiguration();
+        assertThat(bf.getBeanNamesForType(ORDER_REPOSITORY)).containsExactly("orderRepository0");
+        assertThat(bf.isTypeMatch("orderRepository0", ORDER_REPOSITORY)).isTrue();
+
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(OrderRepository.class);
+        bf.registerBeanDefinition("orderRepository1", bd);
+        assertThat(bf.getBeanNamesForType(ORDER_REPOSITORY)).containsExactly("orderRepository0", "orderRepository1");
+
+        GenericBeanDefinition replacement = new GenericBeanDefinition();
+        replacement.setBeanClass(ProductRepository.class);
+        bf.registerBeanDefinition("orderRepository0", replacement);
+        assertThat(bf.isTypeMatch("orderRepository0", ORDER_REPOSITORY)).isFalse();
+        assertThat(bf.getBeanNamesForType(ORDER_REPOSITORY)).containsExactly("orderRepository1");
+
+        bf.registerSingleton("manualOrders", new OrderRepository());
+        assertThat(bf.getBeanNamesForType(ORDER_REPOSITORY)).containsExactly("orderRepository1", "manualOrders");
+
+        assertThat(bf.isTypeMatch("lazyRepository0", ORDER_REPOSITORY)).isFalse();
+        bf.getBean("lazyRepository0");
+        assertThat(bf.isTypeMatch("lazyRepository0", ORDER_REPOSITORY)).isTrue();
+    }
+
+    /**
+     * A full cache starts over instead of growing past its bound
+     */
+    @Test
+    void bounded() {
+        CachingTypeMatchBeanFactory bf = registerRepositories(new CachingTypeMatchBeanFactory(), 10);
+        bf.setMaxCacheEntries(16);
+        for (String beanName : bf.getBeanDefinitionNames()) {
+            bf.isTypeMatch(beanName, ORDER_REPOSITORY);
+            bf.isTypeMatch(beanName, CUSTOMER_REPOSITORY);
+        }
+        assertThat(bf.getCacheSize()).isLessThanOrEqualTo(16);
+    }
+
+    /**
+     * Latency and allocation of generic {@code getBeanNamesForType} and {@code isTypeMatch} on a frozen registry,
+     * plain against cached. Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void typeMatchBenchmark() {
+        for (int copies : new int[] { 100, 1_000 }) {
+            DefaultListableBeanFactory plain = registerRepositories(new DefaultListableBeanFactory(), copies);
+            CachingTypeMatchBeanFactory cached = registerRepositories(new CachingTypeMatchBeanFactory(), copies);
+            plain.freezeConfiguration();
+            cached.freezeConfiguration();
+            String[] names = plain.getBeanDefinitionNames();
+
+            C01_LargeContextGenerator.Bench.Op plainNames = i -> plain.getBeanNamesForType(ORDER_REPOSITORY);
+            C01_LargeContextGenerator.Bench.Op cachedNames = i -> cached.getBeanNamesForType(ORDER_REPOSITORY);
+            C01_LargeContextGenerator.Bench.Op plainMatch = i -> plain.isTypeMatch(names[i % names.length], CUSTOMER_REPOSITORY);
+            C01_LargeContextGenerator.Bench.Op cachedMatch = i -> cached.isTypeMatch(names[i % names.length], CUSTOMER_REPOSITORY);
+
+            System.out.printf("%,d beans: getBeanNamesForType plain %,d ns/op %,d B/op, cached %,d ns/op %,d B/op%n",
+                    names.length,
+                    C01_LargeContextGenerator.Bench.measure(1_000, plainNames),
+                    C01_LargeContextGenerator.Bench.allocated(1_000, plainNames),
+                    C01_LargeContextGenerator.Bench.measure(1_000, cachedNames),
+                    C01_LargeContextGenerator.Bench.allocated(1_000, cachedNames));
+            System.out.printf("%,d beans: isTypeMatch plain %,d ns/op %,d B/op, cached %,d ns/op %,d B/op%n",
+                    names.length,
+                    C01_LargeContextGenerator.Bench.measure(100_000, plainMatch),
+                    C01_LargeContextGenerator.Bench.allocated(100_000, plainMatch),
+                    C01_LargeContextGenerator.Bench.measure(100_000, cachedMatch),
+                    C01_LargeContextGenerator.Bench.allocated(100_000, cachedMatch));
+        }
+    }
+
+    /**
+     * Per copy: an order repository, a customer repository from a factory bean, a generic product repository
+     * declared through its target type and a lazy bean whose type is only known once created
+     */
+    private static <T extends DefaultListableBeanFactory> T registerRepositories(T bf, int copies) {
+        for (int i = 0; i < copies; i++) {
+            GenericBeanDefinition orders = new GenericBeanDefinition();
+            orders.setBeanClass(OrderRepository.class);
+            bf.registerBeanDefinition("orderRepository" + i, orders);
+
+            GenericBeanDefinition customers = new GenericBeanDefinition();
+            customers.setBeanClass(CustomerRepositoryFactoryBean.class);
+            bf.registerBeanDefinition("customerRepository" + i, customers);
+
+            RootBeanDefinition products = new RootBeanDefinition(GenericRepository.class);
+            products.setTargetType(PRODUCT_REPOSITORY);
+            bf.registerBeanDefinition("productRepository" + i, products);
+
+            RootBeanDefinition lazy = new RootBeanDefinition(Object.class);
+            lazy.setInstanceSupplier(OrderRepository::new);
+            lazy.setLazyInit(true);
+            bf.registerBeanDefinition("lazyRepository" + i, lazy);
+        }
+        return bf;
+    }
+
+    /**
+     * Factory caching type checks per (bean definition, requested type): {@code isTypeMatch} results,
+     * {@code FactoryBean} object types and, once the configuration is frozen, {@code getBeanNamesForType} for generic
+     * types, which the plain factory only caches for raw classes.
+     * <p>Entries are validated against the identity of the merged definition, so replaced or re-merged definitions
+     * miss. Singleton changes drop the entries of that bean, registry changes drop the name lookups. The cache holds
+     * at most {@link #setMaxCacheEntries(int) max entries} and starts over when full.
+     * <p>Negative matches of factory beans aren't cached: {@code getObjectType} may only be known after initialization.
+     */
+    static class CachingTypeMatchBeanFactory extends DefaultListableBeanFactory {
+        private final Map<String, BeanTypeCache> typeCaches = new ConcurrentHashMap<>(256);
+        private final Map<TypeKey, String[]> namesByType = new ConcurrentHashMap<>(64);
+        private final AtomicInteger cacheSize = new AtomicInteger();
+        private volatile int maxCacheEntries = 10_000;
+        private final LongAdder hits = new LongAdder();
+
+        void setMaxCacheEntries(int maxCacheEntries) {
+            this.maxCacheEntries = maxCacheEntries;
+        }
+
+        int getCacheSize() {
+            return cacheSize.get();
+        }
+
+        long getHits() {
+            return hits.sum();
+        }
+
+        @Override
+        protected boolean isTypeMatch(String name, ResolvableType typeToMatch, boolean allowFactoryBeanInit)
+                throws NoSuchBeanDefinitionException {
+            String beanName = transformedBeanName(name);
+            BeanTypeCache cache = typeCache(beanName);
+            if (cache == null) {
+                return super.isTypeMatch(name, typeToMatch, allowFactoryBeanInit);
+            }
+            TypeKey key = new TypeKey(typeToMatch, (BeanFactoryUtils.isFactoryDereference(name) ? 1 : 0) | (allowFactoryBeanInit ? 2 : 0));
+            Boolean match = cache.matches.get(key);
+            if (match != null) {
+                hits.increment();
+                return match;
+            }
+            boolean result = super.isTypeMatch(name, typeToMatch, allowFactoryBeanInit);
+            if ((result || !isFactoryBean(beanName, cache.mbd)) && !isCurrentlyInCreation(beanName)
+                    && cache.matches.putIfAbsent(key, result) == null) {
+                entryAdded();
+            }
+            return result;
+        }
+
+        @Override
+        protected ResolvableType getTypeForFactoryBean(String beanName, RootBeanDefinition mbd, boolean allowInit) {
+            BeanTypeCache cache = typeCache(beanName);
+            if (cache == null || cache.mbd != mbd) {
+                return super.getTypeForFactoryBean(beanName, mbd, allowInit);
+            }
+            int slot = allowInit ? 1 : 0;
+            ResolvableType type = cache.factoryBeanTypes[slot];
+            if (type != null) {
+                hits.increment();
+                return type;
+            }
+            type = super.getTypeForFactoryBean(beanName, mbd, allowInit);
+            if (type != ResolvableType.NONE && !isCurrentlyInCreation(beanName)) {
+                cache.factoryBeanTypes[slot] = type;
+                entryAdded();
+            }
+            return type;
+        }
+
+        @Override
+        public String[] getBeanNamesForType(ResolvableType type, boolean includeNonSingletons, boolean allowEagerInit) {
+            if (!isConfigurationFrozen() || !allowEagerInit || !type.hasGenerics()) {
+                return super.getBeanNamesForType(type, includeNonSingletons, allowEagerInit);
+            }
+            TypeKey key = new TypeKey(type, includeNonSingletons ? 1 : 0);
+            String[] names = namesByType.get(key);
+            if (names != null) {
+                hits.increment();
+                return names;
+            }
+            names = super.getBeanNamesForType(type, includeNonSingletons, true);
+            if (namesByType.putIfAbsent(key, names) == null) {
+                entryAdded();
+            }
+            return names;
+        }
+
+        /**
+         * @return the cache of a bean with a local definition, {@code null} for manual singletons and unknown names
+         */
+        @Nullable
+        private BeanTypeCache typeCache(String beanName) {
+            if (!containsBeanDefinition(beanName)) {
+                return null;
+            }
+            RootBeanDefinition mbd = getMergedLocalBeanDefinition(beanName);
+            BeanTypeCache cache = typeCaches.get(beanName);
+            if (cache == null || cache.mbd != mbd) {
+                BeanTypeCache fresh = new BeanTypeCache(mbd);
+                if (cache != null ? typeCaches.replace(beanName, cache, fresh) : typeCaches.putIfAbsent(beanName, fresh) == null) {
+                    if (cache != null) {
+                        // entries of the stale cache no longer count against the bound
+                        cacheSize.addAndGet(-cache.size());
+                    }
+                    cache = fresh;
+                } else {
+                    cache = typeCaches.get(beanName);
+                    if (cache == null || cache.mbd != mbd) {
+                        cache = fresh;
+                    }
+                }
+            }
+            return cache;
+        }
+
+        private void entryAdded() {
+            if (cacheSize.incrementAndGet() > maxCacheEntries) {
+                clearTypeCaches();
+            }
+        }
+
+        private void clearTypeCaches() {
+            typeCaches.clear();
+            namesByType.clear();
+            cacheSize.set(0);
+        }
+
+        private void clearNames() {
+            cacheSize.addAndGet(-namesByType.size());
+            namesByType.clear();
+        }
+
+        private void evict(String beanName) {
+            BeanTypeCache cache = typeCaches.remove(beanName);
+            if (cache != null) {
+                cacheSize.addAndGet(-cache.size());
+            }
+            clearNames();
+        }
+
+        @Override
+        public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException {
+            super.registerBeanDefinition(beanName, beanDefinition);
+            evict(beanName);
+        }
+
+        @Override
+        public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            super.removeBeanDefinition(beanName);
+            evict(beanName);
+        }
+
+        @Override
+        protected void addSingleton(String beanName, Object singletonObject) {
+            super.addSingleton(beanName, singletonObject);
+            evict(beanName);
+        }
+
+        @Override
+        protected void removeSingleton(String beanName) {
+            super.removeSingleton(beanName);
+            evict(beanName);
+        }
+
+        @Override
+        public void destroySingletons() {
+            super.destroySingletons();
+            clearTypeCaches();
+        }
+
+        @Override
+        public void clearMetadataCache() {
+            super.clearMetadataCache();
+            clearTypeCaches();
+        }
+
+        @Override
+        public void freezeConfiguration() {
+            super.freezeConfiguration();
+            clearNames();
+        }
+    }
+
+    /**
+     * Type checks of one bean, valid for the merged definition they were computed from
+     */
+    private static final class BeanTypeCache {
+        final RootBeanDefinition mbd;
+        final Map<TypeKey, Boolean> matches = new ConcurrentHashMap<>(4);
+        /** Indexed by {@code allowInit} */
+        final ResolvableType[] factoryBeanTypes = new ResolvableType[2];
+
+        BeanTypeCache(RootBeanDefinition mbd) {
+            this.mbd = mbd;
+        }
+
+        int size() {
+            int size = matches.size();
+            for (ResolvableType type : factoryBeanTypes) {
+                if (type != null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Requested type plus the lookup flags, as a bit set whose meaning depends on the map holding the key
+     */
+    private static final class TypeKey {
+        private final ResolvableType type;
+        private final int flags;
+        private final int hash;
+
+        TypeKey(ResolvableType type, int flags) {
+            this.type = type;
+            this.flags = flags;
+            this.hash = 31 * type.hashCode() + flags;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TypeKey)) {
+                return false;
+            }
+            TypeKey that = (TypeKey) other;
+            return flags == that.flags && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    interface Repository<T> {
+        T findById(long id);
+    }
+
+    static class Order {
+    }
+
+    static class Customer {
+    }
+
+    static class Product {
+    }
+
+    static class OrderRepository implements Repository<Order> {
+        @Override
+        public Order findById(long id) {
+            return new Order();
+        }
+    }
+
+    static class CustomerRepository implements Repository<Customer> {
+        @Override
+        public Customer findById(long id) {
+            return new Customer();
+        }
+    }
+
+    static class ProductRepository implements Repository<Product> {
+        @Override
+        public Product findById(long id) {
+            return new Product();
+        }
+    }
+
+    static class GenericRepository<T> implements Repository<T> {
+        @Override
+        @Nullable
+        public T findById(long id) {
+            return null;
+        }
+    }
+
+    static class CustomerRepositoryFactoryBean implements FactoryBean<Repository<Customer>> {
+        @Override
+        public Repository<Customer> getObject() {
+            return new CustomerRepository();
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return CustomerRepository.class;
+        }
+    }
+}
@@ -0,0 +1,683 @@
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C15_RetainedHeapReport {
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Memory reachable only from one singleton is retained by it, memory reachable from several is reported as
+     * shared, a singleton referenced by another one keeps its own entry
+     */
+    @Test
+    void retainedAndShared() {
+        HeapReportBeanFactory bf = new HeapReportBeanFactory();
+        byte[] shared = new byte[MB / 10];
+        bf.registerSingleton("large", new Holder(new byte[MB], shared, null));
+        bf.registerSingleton("small", new Holder(new byte[MB / 100], shared, null));
+        bf.registerSingleton("outer", new Holder(new byte[0], null, bf.getSingleton("small")));
+
+        HeapReport report = bf.retainedHeapReport();
+        System.out.println(report);
+
+        assertThat(report.getBeans()).extracting(BeanHeap::getBeanName).startsWith("large", "small");
+        assertThat(report.getBean("large").getRetainedBytes()).isBetween((long) MB, (long) MB + MB / 10);
+        assertThat(report.getBean("small").getRetainedBytes()).isBetween((long) MB / 100, (long) MB / 10);
+        assertThat(report.getBean("outer").getRetainedBytes()).isLessThan(MB / 100);
+        assertThat(report.getSharedBytes()).isGreaterThanOrEqualTo(MB / 10);
+    }
+
+    /**
+     * JDK proxies are followed through their invocation handler, AOP proxies through their advisors and target source,
+     * maps and collections of JDK classes through their API; the factory itself is not walked
+     * @see B02_ProxyPostProcessor.ProxyBeanProcessor
+     * @see B09_SpringAopProxy
+     */
+    @Test
+    void proxiesAndCollections() {
+        HeapReportBeanFactory bf = new HeapReportBeanFactory();
+        bf.addBeanPostProcessor(new B02_ProxyPostProcessor.ProxyBeanProcessor());
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(PayloadBean.class);
+        bf.registerBeanDefinition("jdkProxied", bd);
+        bf.getBean("jdkProxied");
+
+        ProxyFactory proxyFactory = new ProxyFactory(new Holder(new byte[MB], null, null));
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice((MethodInterceptor) invocation -> invocation.proceed());
+        bf.registerSingleton("aopProxied", proxyFactory.getProxy());
+
+        Map<String, byte[]> cache = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            cache.put("entry" + i, new byte[MB / 10]);
+        }
+        bf.registerSingleton("cache", cache);
+
+        GenericBeanDefinition factoryBean = new GenericBeanDefinition();
+        factoryBean.setBeanClass(PayloadFactoryBean.class);
+        bf.registerBeanDefinition("product", factoryBean);
+        bf.getBean("product");
+
+        HeapReport report = bf.retainedHeapReport();
+        System.out.println(report);
+
+        assertThat(Proxy.isProxyClass(bf.getSingleton("jdkProxied").getClass())).isTrue();
+        assertThat(report.getBean("jdkProxied").getRetainedBytes()).isGreaterThanOrEqualTo(MB);
+        assertThat(report.getBean("aopProxied").getRetainedBytes()).isGreaterThanOrEqualTo(MB);
+        assertThat(report.getBean("cache").getRetainedBytes()).isGreaterThanOrEqualTo(MB);
+        assertThat(report.getBean("&product").getRetainedBytes()).isLessThan(MB);
+        assertThat(report.getBean("product").getRetainedBytes()).isGreaterThanOrEqualTo(MB);
+        assertThat(report.byDefinition()).containsKeys("jdkProxied", "aopProxied", "cache", "product",
+                HeapReport.SHARED);
+        assertThat(report.getObjects()).isLessThan(10_000);
+    }
+
+    /**
+     * Factory reporting the heap retained by its singletons.
+     * <p>The walk starts at every singleton, and at cached {@link FactoryBean} products, and follows instance fields,
+     * array elements, the invocation handler of JDK proxies and, for JDK classes whose fields can't be opened, the
+     * contents of maps, collections and atomic references. Classes, class loaders, threads, enums and bean factories
+     * are not walked, they are not owned by a bean.
+     * <p>Ownership comes from the dominator tree of that graph under a virtual root holding the singletons: an object
+     * belongs to the closest singleton every path to it goes through, objects reachable from several singletons
+     * without such a dominator are {@link HeapReport#SHARED shared}.
+     * <p>Sizes are estimates from field layouts assuming compressed references, internal nodes of opened JDK
+     * collections are approximated per element. The walk runs against live beans, the report is a snapshot as good
+     * as the beans are quiet.
+     */
+    static class HeapReportBeanFactory extends DefaultListableBeanFactory {
+        private int maxObjects = 5_000_000;
+
+        /**
+         * Objects to walk before giving up, the report is then {@link HeapReport#isTruncated() truncated}
+         */
+        void setMaxObjects(int maxObjects) {
+            this.maxObjects = maxObjects;
+        }
+
+        HeapReport retainedHeapReport() {
+            Map<String, Object> roots = new LinkedHashMap<>();
+            for (String beanName : getSingletonNames()) {
+                Object singleton = getSingleton(beanName, false);
+                if (singleton instanceof FactoryBean) {
+                    roots.put(FACTORY_BEAN_PREFIX + beanName, singleton);
+                    Object product = getCachedObjectForFactoryBean(beanName);
+                    if (product != null) {
+                        roots.put(beanName, product);
+                    }
+                } else if (singleton != null) {
+                    roots.put(beanName, singleton);
+                }
+            }
+            ObjectGraph graph = ObjectGraph.walk(roots.values(), maxObjects);
+            int[] idom = graph.dominators();
+            long[] retained = graph.retainedSizes(idom);
+            int[] retainedObjects = graph.retainedCounts(idom);
+
+            List<BeanHeap> beans = new ArrayList<>();
+            Map<Integer, String> rootNames = new HashMap<>();
+            for (Map.Entry<String, Object> root : roots.entrySet()) {
+                int node = graph.nodeOf(root.getValue());
+                if (node < 0 || rootNames.putIfAbsent(node, root.getKey()) != null) {
+                    continue;
+                }
+                String beanName = root.getKey();
+                String definitionName = transformedBeanName(beanName);
+                beans.add(new BeanHeap(beanName, definitionName, root.getValue().getClass(),
+                        graph.shallowSize(node), retained[node], retainedObjects[node]));
+            }
+            long shared = 0;
+            for (int node = 1; node < graph.size(); node++) {
+                if (idom[node] == ObjectGraph.ROOT && !rootNames.containsKey(node)) {
+                    shared += retained[node];
+                }
+            }
+            return new HeapReport(beans, shared, retained[ObjectGraph.ROOT], graph.size() - 1, graph.isTruncated());
+        }
+    }
+
+    /**
+     * Reachable objects numbered in discovery order, node 0 being the virtual root pointing at the starting objects
+     */
+    static final class ObjectGraph {
+        static final int ROOT = 0;
+        /** HashMap node plus its table slot */
+        private static final int MAP_ENTRY_BYTES = 40;
+        /** Backing array slot plus growth slack */
+        private static final int COLLECTION_ELEMENT_BYTES = 8;
+        private static final Map<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+        private final IdentityHashMap<Object, Integer> nodes = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        private final List<int[]> successors = new ArrayList<>();
+        private long[] shallowSizes = new long[1024];
+        private boolean truncated;
+
+        static ObjectGraph walk(Collection<?> roots, int maxObjects) {
+            ObjectGraph graph = new ObjectGraph();
+            graph.objects.add(null);
+            graph.successors.add(null);
+            Deque<Integer> pending = new ArrayDeque<>();
+            int[] rootEdges = roots.stream().filter(root -> !skipped(root))
+                    .mapToInt(root -> graph.node(root, pending)).distinct().toArray();
+            graph.successors.set(ROOT, rootEdges);
+
+            List<Object> references = new ArrayList<>();
+            while (!pending.isEmpty()) {
+                int node = pending.poll();
+                if (graph.size() > maxObjects) {
+                    graph.truncated = true;
+                    graph.successors.set(node, new int[0]);
+                    continue;
+                }
+                references.clear();
+                graph.setShallowSize(node, references(graph.objects.get(node), references));
+                int[] edges = new int[references.size()];
+                int count = 0;
+                for (Object reference : references) {
+                    if (!skipped(reference)) {
+                        edges[count++] = graph.node(reference, pending);
+                    }
+                }
+                graph.successors.set(node, count == edges.length ? edges : Arrays.copyOf(edges, count));
+            }
+            for (int node = 1; node < graph.size(); node++) {
+                if (graph.successors.get(node) == null) {
+                    graph.successors.set(node, new int[0]);
+                }
+            }
+            return graph;
+        }
+
+        int size() {
+            return objects.size();
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        int nodeOf(Object object) {
+            Integer node = nodes.get(object);
+            return node != null ? node : -1;
+        }
+
+        long shallowSize(int node) {
+            return node < shallowSizes.length ? shallowSizes[node] : 0;
+        }
+
+        private int node(Object object, Deque<Integer> pending) {
+            Integer node = nodes.get(object);
+            if (node == null) {
+                node = objects.size();
+                nodes.put(object, node);
+                objects.add(object);
+                successors.add(null);
+                pending.add(node);
+            }
+            return node;
+        }
+
+        private void setShallowSize(int node, long size) {
+            if (node >= shallowSizes.length) {
+                shallowSizes = Arrays.copyOf(shallowSizes, Math.max(node + 1, shallowSizes.length * 2));
+            }
+            shallowSizes[node] = size;
+        }
+
+        /**
+         * Adds the objects directly referenced by {@code object}
+         * @return estimated shallow size of {@code object}
+         */
+        private static long references(Object object, List<Object> references) {
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (element != null) {
+                            references.add(element);
+                        }
+                    }
+                }
+                return align(16 + (long) length * elementSize(type.getComponentType()));
+            }
+            if (Proxy.isProxyClass(type)) {
+                references.add(Proxy.getInvocationHandler(object));
+                return align(16);
+            }
+            ClassLayout layout = LAYOUTS.computeIfAbsent(type, ClassLayout::of);
+            for (Field field : layout.references) {
+                try {
+                    Object value = field.get(object);
+                    if (value != null) {
+                        references.add(value);
+                    }
+                } catch (IllegalAccessException ex) {
+                    // opened in ClassLayout, only fails for classes changing under us
+                }
+            }
+            long size = layout.shallowSize;
+            if (layout.opaque) {
+                try {
+                    if (object instanceof String) {
+                        size += align(16 + ((String) object).length());
+                    } else if (object instanceof Map) {
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                            addIfPresent(references, entry.getKey());
+                            addIfPresent(references, entry.getValue());
+                            size += MAP_ENTRY_BYTES;
+                        }
+                    } else if (object instanceof Collection) {
+                        for (Object element : (Collection<?>) object) {
+                            addIfPresent(references, element);
+                            size += COLLECTION_ELEMENT_BYTES;
+                        }
+                    } else if (object instanceof AtomicReference) {
+                        addIfPresent(references, ((AtomicReference<?>) object).get());
+                    }
+                } catch (RuntimeException ex) {
+                    // concurrently modified or unmodifiable view failing to iterate, keep what was seen
+                }
+            }
+            return size;
+        }
+
+        private static void addIfPresent(List<Object> references, @Nullable Object object) {
+            if (object != null) {
+                references.add(object);
+            }
+        }
+
+        private static boolean skipped(Object object) {
+            return object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+                    || object instanceof Module || object instanceof Enum || object instanceof BeanFactory;
+        }
+
+        /**
+         * Immediate dominators after Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm"
+         */
+        int[] dominators() {
+            int size = size();
+            int[] order = reversePostorder();
+            int[] orderIndex = new int[size];
+            for (int i = 0; i < order.length; i++) {
+                orderIndex[order[i]] = i;
+            }
+            int[][] predecessors = predecessors();
+
+            int[] idom = new int[size];
+            Arrays.fill(idom, -1);
+            idom[ROOT] = ROOT;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 1; i < order.length; i++) {
+                    int node = order[i];
+                    int newIdom = -1;
+                    for (int predecessor : predecessors[node]) {
+                        if (idom[predecessor] == -1) {
+                            continue;
+                        }
+                        newIdom = newIdom == -1 ? predecessor : intersect(predecessor, newIdom, idom, orderIndex);
+                    }
+                    if (newIdom != idom[node]) {
+                        idom[node] = newIdom;
+                        changed = true;
+                    }
+                }
+            }
+            return idom;
+        }
+
+        private static int intersect(int a, int b, int[] idom, int[] orderIndex) {
+            while (a != b) {
+                while (orderIndex[a] > orderIndex[b]) {
+                    a = idom[a];
+                }
+                while (orderIndex[b] > orderIndex[a]) {
+                    b = idom[b];
+                }
+            }
+            return a;
+        }
+
+        /**
+         * Sizes summed bottom-up over the dominator tree. Dominators come first in reverse postorder, so walking it
+         * backwards sees every node before its dominator.
+         */
+        long[] retainedSizes(int[] idom) {
+            long[] retained = Arrays.copyOf(shallowSizes, size());
+            int[] order = reversePostorder();
+            for (int i = order.length - 1; i > 0; i--) {
+                retained[idom[order[i]]] += retained[order[i]];
+            }
+            return retained;
+        }
+
+        int[] retainedCounts(int[] idom) {
+            int[] counts = new int[size()];
+            Arrays.fill(counts, 1);
+            int[] order = reversePostorder();
+            for (int i = order.length - 1; i > 0; i--) {
+                counts[idom[order[i]]] += counts[order[i]];
+            }
+            return counts;
+        }
+
+        private int[] reversePostorder() {
+            int size = size();
+            int[] postorder = new int[size];
+            int count = 0;
+            boolean[] visited = new boolean[size];
+            int[] stack = new int[size];
+            int[] nextEdge = new int[size];
+            int depth = 0;
+            stack[depth++] = ROOT;
+            visited[ROOT] = true;
+            while (depth > 0) {
+                int node = stack[depth - 1];
+                int[] edges = successors.get(node);
+                if (nextEdge[node] < edges.length) {
+                    int successor = edges[nextEdge[node]++];
+                    if (!visited[successor]) {
+                        visited[successor] = true;
+                        stack[depth++] = successor;
+                    }
+                } else {
+                    postorder[count++] = node;
+                    depth--;
+                }
+            }
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = postorder[count - 1 - i];
+            }
+            return order;
+        }
+
+        private int[][] predecessors() {
+            int size = size();
+            int[] counts = new int[size];
+            for (int[] edges : successors) {
+                for (int successor : edges) {
+                    counts[successor]++;
+                }
+            }
+            int[][] predecessors = new int[size][];
+            for (int node = 0; node < size; node++) {
+                predecessors[node] = new int[counts[node]];
+                counts[node] = 0;
+            }
+            for (int node = 0; node < size; node++) {
+                for (int successor : successors.get(node)) {
+                    predecessors[successor][counts[successor]++] = node;
+                }
+            }
+            return predecessors;
+        }
+
+        private static long align(long size) {
+            return (size + 7) & ~7L;
+        }
+
+        private static int elementSize(Class<?> type) {
+            if (type == long.class || type == double.class) {
+                return 8;
+            } else if (type == int.class || type == float.class || !type.isPrimitive()) {
+                return 4;
+            } else if (type == short.class || type == char.class) {
+                return 2;
+            }
+            return 1;
+        }
+
+        /**
+         * Instance fields of a class and its superclasses. A class is opaque when some of its reference fields can't
+         * be opened, typically JDK classes in modules not open to us.
+         */
+        private static final class ClassLayout {
+            final long shallowSize;
+            final Field[] references;
+            final boolean opaque;
+
+            private ClassLayout(long shallowSize, Field[] references, boolean opaque) {
+                this.shallowSize = shallowSize;
+                this.references = references;
+                this.opaque = opaque;
+            }
+
+            static ClassLayout of(Class<?> type) {
+                long size = 12;
+                List<Field> references = new ArrayList<>();
+                boolean opaque = false;
+                for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+                        size += elementSize(field.getType());
+                        if (!field.getType().isPrimitive()) {
+                            if (field.trySetAccessible()) {
+                                references.add(field);
+                            } else {
+                                opaque = true;
+                            }
+                        }
+                    }
+                }
+                return new ClassLayout(align(size), references.toArray(new Field[0]), opaque);
+            }
+        }
+    }
+
+    /**
+     * Estimated heap of all singletons. Bean entries are sorted by retained size, largest first.
+     */
+    static final class HeapReport {
+        /** Bucket of objects reachable from several singletons without one of them dominating */
+        static final String SHARED = "<shared>";
+
+        private final List<BeanHeap> beans;
+        private final long sharedBytes;
+        private final long totalBytes;
+        private final int objects;
+        private final boolean truncated;
+
+        HeapReport(List<BeanHeap> beans, long sharedBytes, long totalBytes, int objects, boolean truncated) {
+            List<BeanHeap> sorted = new ArrayList<>(beans);
+            sorted.sort(BeanHeap.BY_RETAINED);
+            this.beans = Collections.unmodifiableList(sorted);
+            this.sharedBytes = sharedBytes;
+            this.totalBytes = totalBytes;
+            this.objects = objects;
+            this.truncated = truncated;
+        }
+
+        List<BeanHeap> getBeans() {
+            return beans;
+        }
+
+        List<BeanHeap> getBeans(Comparator<? super BeanHeap> order) {
+            return beans.stream().sorted(order).collect(Collectors.toList());
+        }
+
+        @Nullable
+        BeanHeap getBean(String beanName) {
+            return beans.stream().filter(bean -> bean.getBeanName().equals(beanName)).findFirst().orElse(null);
+        }
+
+        /**
+         * Retained bytes per bean definition, a factory bean together with its product, and the shared bucket,
+         * largest first
+         */
+        Map<String, Long> byDefinition() {
+            Map<String, Long> sizes = new HashMap<>();
+            for (BeanHeap bean : beans) {
+                sizes.merge(bean.getDefinitionName(), bean.getRetainedBytes(), Long::sum);
+            }
+            sizes.put(SHARED, sharedBytes);
+            return sizes.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+        }
+
+        long getSharedBytes() {
+            return sharedBytes;
+        }
+
+        long getTotalBytes() {
+            return totalBytes;
+        }
+
+        int getObjects() {
+            return objects;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("%,d objects, %,d KB%s%n", objects, totalBytes / 1024,
+                    truncated ? " (truncated)" : ""));
+            sb.append(String.format("%-30s %12s %12s %10s  %s%n", "bean", "retained KB", "shallow B", "objects", "type"));
+            for (BeanHeap bean : beans) {
+                sb.append(String.format("%-30s %,12d %,12d %,10d  %s%n", bean.getBeanName(),
+                        bean.getRetainedBytes() / 1024, bean.getShallowBytes(), bean.getRetainedObjects(),
+                        bean.getType().getName()));
+            }
+            sb.append(String.format("%-30s %,12d%n", SHARED, sharedBytes / 1024));
+            return sb.toString();
+        }
+    }
+
+    static final class BeanHeap {
+        static final Comparator<BeanHeap> BY_RETAINED = Comparator.comparingLong(BeanHeap::getRetainedBytes).reversed()
+                .thenComparing(BeanHeap::getBeanName);
+        static final Comparator<BeanHeap> BY_SHALLOW = Comparator.comparingLong(BeanHeap::getShallowBytes).reversed()
+                .thenComparing(BeanHeap::getBeanName);
+        static final Comparator<BeanHeap> BY_NAME = Comparator.comparing(BeanHeap::getBeanName);
+
+        private final String beanName;
+        private final String definitionName;
+        private final Class<?> type;
+        private final long shallowBytes;
+        private final long retainedBytes;
+        private final int retainedObjects;
+
+        BeanHeap(String beanName, String definitionName, Class<?> type, long shallowBytes, long retainedBytes,
+                 int retainedObjects) {
+            this.beanName = beanName;
+            this.definitionName = definitionName;
+            this.type = type;
+            this.shallowBytes = shallowBytes;
+            this.retainedBytes = retainedBytes;
+            this.retainedObjects = retainedObjects;
+        }
+
+        /**
+         * Singleton name, {@code &name} for the factory bean itself
+         */
+        String getBeanName() {
+            return beanName;
+        }
+
+        String getDefinitionName() {
+            return definitionName;
+        }
+
+        /**
+         * Type of the singleton, the proxy class for proxied beans
+         */
+        Class<?> getType() {
+            return type;
+        }
+
+        long getShallowBytes() {
+            return shallowBytes;
+        }
+
+        long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        int getRetainedObjects() {
+            return retainedObjects;
+        }
+    }
+
+    static class Holder {
+        private final byte[] own;
+        @Nullable
+        private final byte[] shared;
+        @Nullable
+        private final Object other;
+
+        Holder(byte[] own, @Nullable byte[] shared, @Nullable Object other) {
+            this.own = own;
+            this.shared = shared;
+            this.other = other;
+        }
+
+        public int size() {
+            return own.length;
+        }
+    }
+
+    static class PayloadBean implements B02_ProxyPostProcessor.Interface1, BeanFactoryAware {
+        private final byte[] payload = new byte[MB];
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public String exampleCall(String in) {
+            return in + payload.length;
+        }
+    }
+
+    static class PayloadFactoryBean implements FactoryBean<Holder> {
+        @Override
+        public Holder getObject() {
+            return new Holder(new byte[MB], null, null);
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return Holder.class;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C16_IncrementalRefresh {
+    /**
+     * Replacing a definition rebuilds the bean and the beans depending on it, through {@code @Autowired} and
+     * autowiring by type, in dependency order. Unrelated singletons keep their instances.
+     * @see org.springframework.beans.factory.support.DefaultSingletonBeanRegistry#destroyBean(String, DisposableBean)
+     */
+    @Test
+    void refreshSubgraph() {
+        IncrementalRefreshBeanFactory bf = serviceFactory();
+        bf.preInstantiateSingletons();
+        Service oldService = bf.getBean(Service.class);
+        Cache cache = bf.getBean(Cache.class);
+        List<String> destroyed = Collections.synchronizedList(new ArrayList<>());
+        bf.getBeansOfType(Destroyable.class).values().forEach(bean -> bean.destroyed = destroyed);
+
+        RefreshReport report = bf.refreshBean("dataSource", dataSource("jdbc:new"));
+        System.out.println(report);
+
+        assertThat(report.getDestroyed()).containsExactly("service", "repository", "dataSource");
+        assertThat(destroyed).containsExactly("service", "repository", "dataSource");
+        assertThat(report.getRecreated()).containsExactly("dataSource", "repository", "service");
+        assertThat(bf.getBean(Service.class)).isNotSameAs(oldService);
+        assertThat(bf.getBean(Service.class).getRepository().getDataSource().getUrl()).isEqualTo("jdbc:new");
+        assertThat(bf.getBean(Cache.class)).isSameAs(cache);
+
+        // the recreated repository got its data source injected from the cached @Autowired metadata
+        Service refreshedService = bf.getBean(Service.class);
+        report = bf.refreshBean("dataSource", dataSource("jdbc:newer"));
+        assertThat(report.getDestroyed()).containsExactly("service", "repository", "dataSource");
+        assertThat(report.getRecreated()).containsExactly("dataSource", "repository", "service");
+        assertThat(bf.getBean(Service.class)).isNotSameAs(refreshedService);
+        assertThat(bf.getBean(Service.class).getRepository().getDataSource().getUrl()).isEqualTo("jdbc:newer");
+    }
+
+    /**
+     * A bean without dependents is the only one rebuilt, a lazy bean that was never created stays uncreated
+     */
+    @Test
+    void refreshLeaf() {
+        IncrementalRefreshBeanFactory bf = serviceFactory();
+        bf.preInstantiateSingletons();
+        Service service = bf.getBean(Service.class);
+
+        RefreshReport report = bf.refreshBean("service", service());
+        assertThat(report.getDestroyed()).containsExactly("service");
+        assertThat(report.getRecreated()).containsExactly("service");
+        assertThat(bf.getBean(Service.class)).isNotSameAs(service);
+        assertThat(bf.getBean(Service.class).getRepository()).isSameAs(service.getRepository());
+
+        RootBeanDefinition lazy = new RootBeanDefinition(Cache.class);
+        lazy.setLazyInit(true);
+        bf.registerBeanDefinition("lazyCache", lazy);
+        report = bf.refreshBean("lazyCache", new RootBeanDefinition(Cache.class));
+        assertThat(report.getDestroyed()).isEmpty();
+        assertThat(bf.containsSingleton("lazyCache")).isFalse();
+    }
+
+    /**
+     * Refreshing a node of a generated context, a leaf every node is autowired with, and rebuilding the context.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void refreshBenchmark() {
+        C01_LargeContextGenerator.ContextShape shape = new C01_LargeContextGenerator.ContextShape()
+                .beanCount(10_000)
+                .dependsOnDepth(10)
+                .autowireFanOut(2)
+                .initDestroyProcessor(true)
+                .autowiredProcessor(true);
+
+        long rebuild = C01_LargeContextGenerator.Bench.measure(5, i -> {
+            DefaultListableBeanFactory bf = C01_LargeContextGenerator.LargeContextGenerator.generate(shape);
+            bf.preInstantiateSingletons();
+            bf.destroySingletons();
+            return bf;
+        });
+
+        IncrementalRefreshBeanFactory bf = new IncrementalRefreshBeanFactory();
+        C01_LargeContextGenerator.LargeContextGenerator.addPostProcessors(bf, shape);
+        C01_LargeContextGenerator.LargeContextGenerator.register(bf, shape);
+        bf.preInstantiateSingletons();
+
+        RefreshReport node = bf.refreshBean("node5000", copy(bf, "node5000"));
+        long nodeRefresh = C01_LargeContextGenerator.Bench.measure(100,
+                i -> bf.refreshBean("node5000", copy(bf, "node5000")));
+        RefreshReport leaf = bf.refreshBean("leaf0", copy(bf, "leaf0"));
+        long leafRefresh = C01_LargeContextGenerator.Bench.measure(5, i -> bf.refreshBean("leaf0", copy(bf, "leaf0")));
+
+        System.out.printf("10,000 beans: rebuild %,d us, node refresh %,d us (%d beans), leaf refresh %,d us (%d beans)%n",
+                rebuild / 1_000, nodeRefresh / 1_000, node.getRecreated().size(),
+                leafRefresh / 1_000, leaf.getRecreated().size());
+    }
+
+    private static BeanDefinition copy(DefaultListableBeanFactory bf, String beanName) {
+        return ((AbstractBeanDefinition) bf.getBeanDefinition(beanName)).cloneBeanDefinition();
+    }
+
+    private static IncrementalRefreshBeanFactory serviceFactory() {
+        IncrementalRefreshBeanFactory bf = new IncrementalRefreshBeanFactory();
+        AutowiredAnnotationBeanPostProcessor processor = new AutowiredAnnotationBeanPostProcessor();
+        processor.setBeanFactory(bf);
+        bf.addBeanPostProcessor(processor);
+
+        bf.registerBeanDefinition("dataSource", dataSource("jdbc:old"));
+        bf.registerBeanDefinition("repository", new RootBeanDefinition(Repository.class));
+        bf.registerBeanDefinition("service", service());
+        bf.registerBeanDefinition("cache", new RootBeanDefinition(Cache.class));
+        return bf;
+    }
+
+    private static BeanDefinition service() {
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(Service.class);
+        bd.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
+        return bd;
+    }
+
+    private static BeanDefinition dataSource(String url) {
+        GenericBeanDefinition bd = new GenericBeanDefinition();
+        bd.setBeanClass(DataSource.class);
+        bd.getPropertyValues().add("url", url);
+        return bd;
+    }
+
+    /**
+     * Factory replacing single bean definitions without a full {@code destroySingletons()}.
+     * <p>Registering over an existing definition already destroys the old singleton together with every bean
+     * recorded as depending on it through {@code registerDependentBean}: autowiring, {@code @Autowired}, constructor
+     * arguments, {@code depends-on}, as well as child definitions. This factory records which singletons went away
+     * and creates them again, dependencies first, in the order they were created originally. Singletons outside that
+     * subgraph are not touched and stay available to other threads throughout. The dependencies of each destroyed
+     * singleton are recorded as well and registered again once it is recreated, so that later refreshes find the
+     * same subgraph.
+     * <p>Beans holding on to a replaced bean without a recorded dependency, such as lookups through
+     * {@code getBean} or {@code ObjectProvider}, keep their old reference.
+     */
+    static class IncrementalRefreshBeanFactory extends DefaultListableBeanFactory {
+        private final Object refreshLock = new Object();
+        private final Map<String, Long> creationOrder = new ConcurrentHashMap<>(256);
+        private final AtomicLong creationSequence = new AtomicLong();
+        @Nullable
+        private volatile Thread refreshingThread;
+        private final List<String> destroyed = new ArrayList<>();
+        private final Map<String, String[]> destroyedDependencies = new HashMap<>();
+
+        /**
+         * Replaces the definition of {@code beanName} and rebuilds what depended on the old bean
+         * @throws BeanCreationException if some beans could not be recreated, after trying all of them
+         */
+        RefreshReport refreshBean(String beanName, BeanDefinition newDefinition) throws BeansException {
+            synchronized (refreshLock) {
+                long start = System.nanoTime();
+                List<String> destroyedBeans;
+                Map<String, String[]> dependencies;
+                refreshingThread = Thread.currentThread();
+                try {
+                    registerBeanDefinition(beanName, newDefinition);
+                    destroyedBeans = new ArrayList<>(destroyed);
+                    dependencies = new HashMap<>(destroyedDependencies);
+                } finally {
+                    refreshingThread = null;
+                    destroyed.clear();
+                    destroyedDependencies.clear();
+                }
+
+                List<String> toCreate = new ArrayList<>(destroyedBeans);
+                toCreate.sort(Comparator.comparingLong(name -> creationOrder.getOrDefault(name, Long.MAX_VALUE)));
+                List<String> recreated = new ArrayList<>(toCreate.size());
+                List<BeansException> failures = new ArrayList<>();
+                for (String name : toCreate) {
+                    if (!recreatable(name)) {
+                        continue;
+                    }
+                    try {
+                        getBean(name);
+                        if (!name.equals(beanName)) {
+                            restoreDependencies(name, dependencies.get(name));
+                        }
+                        recreated.add(name);
+                    } catch (BeansException ex) {
+                        failures.add(ex);
+                    }
+                }
+                if (!failures.isEmpty()) {
+                    BeanCreationException ex = new BeanCreationException(beanName,
+                            failures.size() + " bean(s) could not be recreated after refresh");
+                    failures.forEach(ex::addRelatedCause);
+                    throw ex;
+                }
+                return new RefreshReport(destroyedBeans, recreated, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Registers the dependencies the bean had before its destruction again. Creating it from an unchanged
+         * definition does not always do so: {@code AutowiredAnnotationBeanPostProcessor} injects cached values
+         * without {@code registerDependentBean}, so a second refresh would leave such dependents alone.
+         * The refreshed bean itself got its post-processor metadata reset and registers its new dependencies.
+         */
+        private void restoreDependencies(String beanName, @Nullable String[] dependencies) {
+            if (dependencies == null) {
+                return;
+            }
+            for (String dependency : dependencies) {
+                if (containsBean(dependency)) {
+                    registerDependentBean(dependency, beanName);
+                }
+            }
+        }
+
+        /**
+         * Singletons still defined after the refresh, manually registered ones are gone for good
+         */
+        private boolean recreatable(String beanName) {
+            if (!containsBeanDefinition(beanName)) {
+                return false;
+            }
+            RootBeanDefinition mbd = getMergedLocalBeanDefinition(beanName);
+            return mbd.isSingleton() && !mbd.isAbstract();
+        }
+
+        @Override
+        public void destroySingleton(String beanName) {
+            boolean record = refreshingThread == Thread.currentThread() && containsSingleton(beanName);
+            if (record) {
+                destroyedDependencies.put(beanName, getDependenciesForBean(beanName));
+            }
+            super.destroySingleton(beanName);
+            if (record) {
+                destroyed.add(beanName);
+            }
+        }
+
+        @Override
+        protected void afterSingletonCreation(String beanName) {
+            super.afterSingletonCreation(beanName);
+            creationOrder.put(beanName, creationSequence.incrementAndGet());
+        }
+
+        @Override
+        public void destroySingletons() {
+            super.destroySingletons();
+            creationOrder.clear();
+        }
+    }
+
+    static final class RefreshReport {
+        private final List<String> destroyed;
+        private final List<String> recreated;
+        private final long nanos;
+
+        RefreshReport(List<String> destroyed, List<String> recreated, long nanos) {
+            this.destroyed = Collections.unmodifiableList(destroyed);
+            this.recreated = Collections.unmodifiableList(recreated);
+            this.nanos = nanos;
+        }
+
+        /**
+         * Singletons destroyed, in the order their destruction completed: dependents before their dependencies
+         */
+        List<String> getDestroyed() {
+            return destroyed;
+        }
+
+        /**
+         * Singletons created again, in creation order
+         */
+        List<String> getRecreated() {
+            return recreated;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("destroyed %d, recreated %d in %,d us: %s", destroyed.size(), recreated.size(),
+                    TimeUnit.NANOSECONDS.toMicros(nanos), recreated);
+        }
+    }
+
+    abstract static class Destroyable implements DisposableBean {
+        @Nullable
+        List<String> destroyed;
+
+        @Override
+        public void destroy() {
+            if (destroyed != null) {
+                destroyed.add(getClass().getSimpleName().substring(0, 1).toLowerCase()
+                        + getClass().getSimpleName().substring(1));
+            }
+        }
+    }
+
+    static class DataSource extends Destroyable {
+        private String url;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+    }
+
+    static class Repository extends Destroyable {
+        @Autowired
+        private DataSource dataSource;
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+    }
+
+    static class Service extends Destroyable {
+        private Repository repository;
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public void setRepository(Repository repository) {
+            this.repository = repository;
+        }
+    }
+
+    static class Cache {
+    }
+}
@@ -0,0 +1,520 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.TypeConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C17_JfrLifecycleEvents {
+    /**
+     * Lifecycle phases, post-processor calls, dependency resolution, destruction and proxy invocations show up in a
+     * recording. The thresholds are lowered to zero, the defaults only keep slow phases.
+     * @see org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#doCreateBean(String, RootBeanDefinition, Object[])
+     */
+    @Test
+    void recordLifecycle(@TempDir Path dir) throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            for (Class<? extends Event> type : JfrBeanFactory.EVENT_TYPES) {
+                recording.enable(type).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            JfrBeanFactory bf = serviceFactory();
+            B02_ProxyPostProcessor.Interface1 service = bf.getBean(B02_ProxyPostProcessor.Interface1.class);
+            service.exampleCall("call");
+            bf.getBean("aopTarget", Target.class).call();
+            bf.destroySingletons();
+
+            recording.stop();
+            Path file = dir.resolve("lifecycle.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        assertThat(beanNames(events, "spring.BeanInstantiation")).contains("repository", "service", "aopTarget");
+        assertThat(beanNames(events, "spring.BeanPopulation")).contains("repository", "service");
+        assertThat(beanNames(events, "spring.BeanInit")).contains("service");
+        assertThat(beanNames(events, "spring.BeanDestroy")).contains("service");
+        assertThat(beanNames(events, "spring.ProxyInvocation")).contains("service", "aopTarget");
+        assertThat(events).filteredOn(event -> event.getEventType().getName().equals("spring.BeanPostProcessor"))
+                .extracting(event -> event.getString("processor"))
+                .contains(AutowiredAnnotationBeanPostProcessor.class.getName(),
+                        JfrProxyEventsPostProcessor.class.getName());
+        assertThat(events).filteredOn(event -> event.getEventType().getName().equals("spring.DependencyResolution"))
+                .extracting(event -> event.getString("dependencyType"))
+                .contains(Repository.class.getName());
+    }
+
+    /**
+     * Without a recording the factory and the proxies behave like plain ones
+     */
+    @Test
+    void notRecording() {
+        JfrBeanFactory bf = serviceFactory();
+        B02_ProxyPostProcessor.Interface1 service = bf.getBean(B02_ProxyPostProcessor.Interface1.class);
+
+        assertThat(service.exampleCall("call")).isEqualTo("call");
+        assertThat(Proxy.getInvocationHandler(service)).isInstanceOf(JfrInvocationHandler.class);
+        assertThat(((Advised) bf.getBean("aopTarget")).getAdvisors()[0].getAdvice()).isInstanceOf(JfrProxyInterceptor.class);
+        assertThat(bf.getBean("aopTarget", Target.class).call()).isEqualTo("target");
+    }
+
+    /**
+     * Prototype creation and proxy calls with and without the events, not recording. Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void overheadBenchmark() {
+        DefaultListableBeanFactory plain = new DefaultListableBeanFactory();
+        JfrBeanFactory jfr = new JfrBeanFactory();
+        for (DefaultListableBeanFactory bf : new DefaultListableBeanFactory[] { plain, jfr }) {
+            RootBeanDefinition bd = new RootBeanDefinition(Repository.class);
+            bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+            bf.registerBeanDefinition("repository", bd);
+        }
+        long plainCreate = C01_LargeContextGenerator.Bench.measure(100_000, i -> plain.getBean("repository"));
+        long jfrCreate = C01_LargeContextGenerator.Bench.measure(100_000, i -> jfr.getBean("repository"));
+
+        Target direct = proxy(new Target(), null);
+        Target sampled = proxy(new Target(), new JfrProxyInterceptor("target", 100));
+        long plainCall = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> direct.call());
+        long jfrCall = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> sampled.call());
+
+        System.out.printf("prototype getBean plain %,d ns/op, with events %,d ns/op%n", plainCreate, jfrCreate);
+        System.out.printf("proxy call plain %,d ns/op, with events %,d ns/op%n", plainCall, jfrCall);
+    }
+
+    private static Target proxy(Target target, @Nullable MethodInterceptor interceptor) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice((MethodInterceptor) MethodInvocation::proceed);
+        if (interceptor != null) {
+            proxyFactory.addAdvice(0, interceptor);
+        }
+        return (Target) proxyFactory.getProxy();
+    }
+
+    private static Set<String> beanNames(List<RecordedEvent> events, String eventName) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(eventName))
+                .map(event -> event.getString("beanName"))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Service proxied by {@code B02}'s processor and autowired with a repository, plus an AOP proxy
+     */
+    private static JfrBeanFactory serviceFactory() {
+        JfrBeanFactory bf = new JfrBeanFactory();
+        AutowiredAnnotationBeanPostProcessor autowired = new AutowiredAnnotationBeanPostProcessor();
+        autowired.setBeanFactory(bf);
+        bf.addBeanPostProcessor(autowired);
+        bf.addBeanPostProcessor(new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return beanName.equals("service") ? new B02_ProxyPostProcessor.ProxyBeanProcessor()
+                        .postProcessAfterInitialization(bean, beanName) : bean;
+            }
+        });
+        bf.addBeanPostProcessor(new JfrProxyEventsPostProcessor(1));
+
+        bf.registerBeanDefinition("repository", new RootBeanDefinition(Repository.class));
+        GenericBeanDefinition service = new GenericBeanDefinition();
+        service.setBeanClass(Service.class);
+        bf.registerBeanDefinition("service", service);
+        bf.registerBeanDefinition("aopTarget", new RootBeanDefinition(Target.class,
+                () -> proxy(new Target(), null)));
+        return bf;
+    }
+
+    /**
+     * Factory emitting JFR events around the phases of bean creation and destruction and around dependency
+     * resolution. Each phase is an event with a duration, post-processor calls get one event per processor.
+     * <p>Events follow the usual JFR pattern: created, begun, and only filled in and committed when
+     * {@link Event#shouldCommit()} says the event type is enabled and over its threshold. When nothing is recording
+     * that check is constant and the event objects don't escape, so the cost is close to none. Thresholds are set per
+     * event type in the recording settings, {@code @Threshold} gives the defaults.
+     */
+    static class JfrBeanFactory extends DefaultListableBeanFactory {
+        static final List<Class<? extends Event>> EVENT_TYPES = List.of(BeanInstantiationEvent.class,
+                BeanPopulationEvent.class, BeanPostProcessorEvent.class, BeanInitEvent.class, BeanDestroyEvent.class,
+                DependencyResolutionEvent.class, ProxyInvocationEvent.class);
+
+        @Override
+        protected BeanWrapper createBeanInstance(String beanName, RootBeanDefinition mbd, @Nullable Object[] args) {
+            BeanInstantiationEvent event = new BeanInstantiationEvent();
+            event.begin();
+            BeanWrapper instanceWrapper = super.createBeanInstance(beanName, mbd, args);
+            if (event.shouldCommit()) {
+                event.beanName = beanName;
+                event.beanClass = instanceWrapper.getWrappedClass().getName();
+                event.commit();
+            }
+            return instanceWrapper;
+        }
+
+        @Override
+        protected void populateBean(String beanName, RootBeanDefinition mbd, @Nullable BeanWrapper bw) {
+            BeanPopulationEvent event = new BeanPopulationEvent();
+            event.begin();
+            super.populateBean(beanName, mbd, bw);
+            if (event.shouldCommit()) {
+                event.beanName = beanName;
+                event.commit();
+            }
+        }
+
+        @Override
+        public Object applyBeanPostProcessorsBeforeInitialization(Object existingBean, String beanName)
+                throws BeansException {
+            Object result = existingBean;
+            for (BeanPostProcessor processor : getBeanPostProcessors()) {
+                BeanPostProcessorEvent event = new BeanPostProcessorEvent();
+                event.begin();
+                Object current = processor.postProcessBeforeInitialization(result, beanName);
+                commit(event, processor, beanName, "before", result, current);
+                if (current == null) {
+                    return result;
+                }
+                result = current;
+            }
+            return result;
+        }
+
+        @Override
+        public Object applyBeanPostProcessorsAfterInitialization(Object existingBean, String beanName)
+                throws BeansException {
+            Object result = existingBean;
+            for (BeanPostProcessor processor : getBeanPostProcessors()) {
+                BeanPostProcessorEvent event = new BeanPostProcessorEvent();
+                event.begin();
+                Object current = processor.postProcessAfterInitialization(result, beanName);
+                commit(event, processor, beanName, "after", result, current);
+                if (current == null) {
+                    return result;
+                }
+                result = current;
+            }
+            return result;
+        }
+
+        private static void commit(BeanPostProcessorEvent event, BeanPostProcessor processor, String beanName,
+                                   String phase, Object bean, @Nullable Object result) {
+            if (event.shouldCommit()) {
+                event.beanName = beanName;
+                event.processor = processor.getClass().getName();
+                event.phase = phase;
+                event.replaced = result != null && result != bean;
+                event.commit();
+            }
+        }
+
+        @Override
+        protected void invokeInitMethods(String beanName, Object bean, @Nullable RootBeanDefinition mbd) throws Throwable {
+            BeanInitEvent event = new BeanInitEvent();
+            event.begin();
+            super.invokeInitMethods(beanName, bean, mbd);
+            if (event.shouldCommit()) {
+                event.beanName = beanName;
+                event.commit();
+            }
+        }
+
+        /**
+         * Times the destroy callbacks of the bean only, dependents destroyed first get their own events
+         */
+        @Override
+        protected void destroyBean(String beanName, @Nullable DisposableBean bean) {
+            if (bean == null || !new BeanDestroyEvent().isEnabled()) {
+                super.destroyBean(beanName, bean);
+                return;
+            }
+            super.destroyBean(beanName, () -> {
+                BeanDestroyEvent event = new BeanDestroyEvent();
+                event.begin();
+                try {
+                    bean.destroy();
+                } finally {
+                    if (event.shouldCommit()) {
+                        event.beanName = beanName;
+                        event.commit();
+                    }
+                }
+            });
+        }
+
+        @Override
+        @Nullable
+        public Object resolveDependency(DependencyDescriptor descriptor, @Nullable String requestingBeanName,
+                                        @Nullable Set<String> autowiredBeanNames, @Nullable TypeConverter typeConverter)
+                throws BeansException {
+            DependencyResolutionEvent event = new DependencyResolutionEvent();
+            event.begin();
+            Object result = super.resolveDependency(descriptor, requestingBeanName, autowiredBeanNames, typeConverter);
+            if (event.shouldCommit()) {
+                event.beanName = requestingBeanName;
+                event.dependencyType = descriptor.getDependencyType().getName();
+                event.resolved = autowiredBeanNames != null ? String.join(",", autowiredBeanNames) : null;
+                event.commit();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Adds sampled {@link ProxyInvocationEvent}s to the proxies created by earlier post-processors: JDK proxies are
+     * re-created around a {@link JfrInvocationHandler}, AOP proxies get a {@link JfrProxyInterceptor} as first advice.
+     * Register it after the proxying post-processors.
+     */
+    static class JfrProxyEventsPostProcessor implements BeanPostProcessor {
+        private final int sampleRate;
+
+        /**
+         * @param sampleRate one in {@code sampleRate} invocations is timed, 1 for all of them
+         */
+        JfrProxyEventsPostProcessor(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+                ((Advised) bean).addAdvice(0, new JfrProxyInterceptor(beanName, sampleRate));
+                return bean;
+            }
+            if (Proxy.isProxyClass(bean.getClass())) {
+                InvocationHandler handler = Proxy.getInvocationHandler(bean);
+                if (!(handler instanceof JfrInvocationHandler)) {
+                    return Proxy.newProxyInstance(bean.getClass().getClassLoader(),
+                            ClassUtils.getAllInterfaces(bean), new JfrInvocationHandler(handler, beanName, sampleRate));
+                }
+            }
+            return bean;
+        }
+    }
+
+    /**
+     * Invocation handler timing one in {@code sampleRate} calls of the handler it wraps
+     */
+    static class JfrInvocationHandler implements InvocationHandler {
+        private final InvocationHandler delegate;
+        private final String beanName;
+        private final int sampleRate;
+
+        JfrInvocationHandler(InvocationHandler delegate, String beanName, int sampleRate) {
+            this.delegate = delegate;
+            this.beanName = beanName;
+            this.sampleRate = sampleRate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            ProxyInvocationEvent event = new ProxyInvocationEvent();
+            if (!event.sampled(sampleRate)) {
+                return delegate.invoke(proxy, method, args);
+            }
+            event.begin();
+            try {
+                return delegate.invoke(proxy, method, args);
+            } finally {
+                event.commit(beanName, method);
+            }
+        }
+    }
+
+    /**
+     * AOP advice timing one in {@code sampleRate} calls of the rest of the chain
+     */
+    static class JfrProxyInterceptor implements MethodInterceptor {
+        private final String beanName;
+        private final int sampleRate;
+
+        JfrProxyInterceptor(String beanName, int sampleRate) {
+            this.beanName = beanName;
+            this.sampleRate = sampleRate;
+        }
+
+        @Override
+        @Nullable
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            ProxyInvocationEvent event = new ProxyInvocationEvent();
+            if (!event.sampled(sampleRate)) {
+                return invocation.proceed();
+            }
+            event.begin();
+            try {
+                return invocation.proceed();
+            } finally {
+                event.commit(beanName, invocation.getMethod());
+            }
+        }
+    }
+
+    @Name("spring.BeanInstantiation")
+    @Label("Bean Instantiation")
+    @Description("Constructor, factory method or instance supplier call")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class BeanInstantiationEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+        @Label("Bean Class")
+        String beanClass;
+    }
+
+    @Name("spring.BeanPopulation")
+    @Label("Bean Population")
+    @Description("Property values and annotation-driven injection")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class BeanPopulationEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+    }
+
+    @Name("spring.BeanPostProcessor")
+    @Label("Bean Post-Processor")
+    @Description("One postProcessBeforeInitialization or postProcessAfterInitialization call")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class BeanPostProcessorEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+        @Label("Processor")
+        String processor;
+        @Label("Phase")
+        String phase;
+        @Label("Replaced")
+        @Description("Whether the processor returned another object, a proxy typically")
+        boolean replaced;
+    }
+
+    @Name("spring.BeanInit")
+    @Label("Bean Init")
+    @Description("InitializingBean and custom init methods")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class BeanInitEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+    }
+
+    @Name("spring.BeanDestroy")
+    @Label("Bean Destroy")
+    @Description("Destruction callbacks of one bean")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class BeanDestroyEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+    }
+
+    @Name("spring.DependencyResolution")
+    @Label("Dependency Resolution")
+    @Description("resolveDependency call for an injection point")
+    @Category({ "Spring", "Bean Lifecycle" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class DependencyResolutionEvent extends Event {
+        @Label("Requesting Bean")
+        String beanName;
+        @Label("Dependency Type")
+        String dependencyType;
+        @Label("Resolved Beans")
+        String resolved;
+    }
+
+    @Name("spring.ProxyInvocation")
+    @Label("Proxy Invocation")
+    @Description("Sampled call through a bean proxy")
+    @Category({ "Spring", "Proxy" })
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static class ProxyInvocationEvent extends Event {
+        @Label("Bean Name")
+        String beanName;
+        @Label("Method")
+        String method;
+
+        /**
+         * Whether to time this call: the event type is enabled and the call is picked by the sample rate
+         */
+        boolean sampled(int sampleRate) {
+            return isEnabled() && (sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+        }
+
+        void commit(String beanName, Method method) {
+            if (shouldCommit()) {
+                this.beanName = beanName;
+                this.method = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+                commit();
+            }
+        }
+    }
+
+    static class Repository {
+    }
+
+    static class Service implements B02_ProxyPostProcessor.Interface1, DisposableBean {
+        @Autowired
+        private Repository repository;
+
+        @Override
+        public String exampleCall(String in) {
+            return in;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    static class Target {
+        public String call() {
+            return "target";
+        }
+    }
+}
@@ -0,0 +1,346 @@
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.lang.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C18_AsyncLifecycleTracing {
+    /**
+     * Traces of {@code B01}'s processor and bean reach logback from the drainer thread, with the tracing thread's name
+     * @see B01_LoggingPostProcessors#loggingPostProcessor()
+     */
+    @Test
+    void tracesReachLogback() {
+        ListAppender<ILoggingEvent> appender = attachAppender();
+        try {
+            DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+            GenericBeanDefinition bd = new GenericBeanDefinition();
+            bd.setBeanClass(B01_LoggingPostProcessors.Bean1.class);
+            bd.setInitMethodName("init");
+            bf.registerBeanDefinition("bean1", bd);
+            bf.addBeanPostProcessor(new B01_LoggingPostProcessors.LoggingBeanProcessor());
+            bf.getBean("bean1");
+
+            assertThat(LifecycleTrace.flush(5, TimeUnit.SECONDS)).isTrue();
+            String thread = Thread.currentThread().getName();
+            assertThat(messages(appender)).containsSubsequence(
+                    thread + " Bean1.Bean1",
+                    thread + " LoggingBeanProcessor.postProcessBeforeInitialization bean1",
+                    thread + " Bean1.init",
+                    thread + " LoggingBeanProcessor.postProcessAfterInitialization bean1");
+        } finally {
+            detachAppender(appender);
+        }
+    }
+
+    /**
+     * Every record from several threads is either logged or counted as dropped
+     */
+    @Test
+    void concurrentProducers() throws InterruptedException {
+        ListAppender<ILoggingEvent> appender = attachAppender();
+        try {
+            long droppedBefore = LifecycleTrace.getDropped();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        LifecycleTrace.trace("Producer", "record", i);
+                    }
+                }, "producer-" + t);
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(LifecycleTrace.flush(5, TimeUnit.SECONDS)).isTrue();
+
+            long logged = messages(appender).stream().filter(message -> message.startsWith("producer-")).count();
+            assertThat(logged + LifecycleTrace.getDropped() - droppedBefore).isEqualTo(40_000);
+        } finally {
+            detachAppender(appender);
+        }
+    }
+
+    /**
+     * A full ring rejects records instead of blocking, drained slots can be reused
+     */
+    @Test
+    void ringDropsWhenFull() {
+        Ring ring = new Ring(Thread.currentThread(), 4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.offer("Ring", "record", i)).isTrue();
+        }
+        assertThat(ring.offer("Ring", "record", 4)).isFalse();
+        assertThat(ring.getDropped()).isEqualTo(1);
+
+        StringBuilder drained = new StringBuilder();
+        assertThat(ring.drain((thread, source, event, detail) -> drained.append(detail))).isEqualTo(4);
+        assertThat(drained).hasToString("0123");
+        assertThat(ring.offer("Ring", "record", 5)).isTrue();
+    }
+
+    /**
+     * Call overhead of {@code B02}'s logging proxy with tracing off and on, the drainer discarding the records.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void proxyTracingBenchmark() {
+        B02_ProxyPostProcessor.Interface1 proxy = (B02_ProxyPostProcessor.Interface1) new B02_ProxyPostProcessor
+                .ProxyBeanProcessor().postProcessAfterInitialization(new B02_ProxyPostProcessor.Bean1(), "bean1");
+        Logger logger = (Logger) LoggerFactory.getLogger(LifecycleTrace.LOGGER_NAME);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            LifecycleTrace.setEnabled(false);
+            long off = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> proxy.exampleCall("x"));
+            LifecycleTrace.setEnabled(true);
+            long droppedBefore = LifecycleTrace.getDropped();
+            long on = C01_LargeContextGenerator.Bench.measure(1_000_000, i -> proxy.exampleCall("x"));
+            LifecycleTrace.flush(5, TimeUnit.SECONDS);
+
+            System.out.printf("proxy call tracing off %,d ns/op, on %,d ns/op, %,d records dropped%n",
+                    off, on, LifecycleTrace.getDropped() - droppedBefore);
+        } finally {
+            LifecycleTrace.setEnabled(true);
+            logger.setLevel(level);
+        }
+    }
+
+    /**
+     * Captures the trace logger, keeping the records off the console meanwhile
+     */
+    private static ListAppender<ILoggingEvent> attachAppender() {
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(LifecycleTrace.LOGGER_NAME);
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        return appender;
+    }
+
+    private static void detachAppender(ListAppender<ILoggingEvent> appender) {
+        Logger logger = (Logger) LoggerFactory.getLogger(LifecycleTrace.LOGGER_NAME);
+        logger.detachAppender(appender);
+        logger.setAdditive(true);
+        appender.stop();
+    }
+
+    private static List<String> messages(ListAppender<ILoggingEvent> appender) {
+        synchronized (appender) {
+            return appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lifecycle tracing for post-processors, proxies and beans, replacing synchronous {@code System.out} calls.
+     * <p>Each tracing thread appends records to its own bounded ring, without locks or formatting: a record is the
+     * source, the event and an optional detail, all references the caller already holds. A daemon thread drains the
+     * rings into the {@value #LOGGER_NAME} logger. A full ring drops the record and counts it rather than slowing the
+     * traced thread down. Records keep their order per thread, not across threads.
+     */
+    static final class LifecycleTrace {
+        static final String LOGGER_NAME = "lifecycle";
+        private static final int RING_CAPACITY = 1024;
+
+        private static volatile boolean enabled = true;
+        private static final List<Ring> RINGS = new CopyOnWriteArrayList<>();
+        private static final ThreadLocal<Ring> LOCAL_RING = ThreadLocal.withInitial(LifecycleTrace::register);
+        private static final LongAdder DROPPED = new LongAdder();
+        private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(LOGGER_NAME);
+        private static volatile Thread drainer;
+
+        private LifecycleTrace() {
+        }
+
+        static void trace(String source, String event) {
+            trace(source, event, null);
+        }
+
+        static void trace(String source, String event, @Nullable Object detail) {
+            if (enabled && !LOCAL_RING.get().offer(source, event, detail)) {
+                DROPPED.increment();
+            }
+        }
+
+        static void setEnabled(boolean enabled) {
+            LifecycleTrace.enabled = enabled;
+        }
+
+        /**
+         * Records dropped on full rings since startup
+         */
+        static long getDropped() {
+            return DROPPED.sum();
+        }
+
+        /**
+         * Waits for the records traced so far to be logged
+         * @return {@code false} if the drainer did not catch up in time
+         */
+        static boolean flush(long timeout, TimeUnit unit) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (Ring ring : RINGS) {
+                long target = ring.published();
+                while (ring.consumed() < target) {
+                    if (System.nanoTime() > deadline) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(100_000);
+                }
+            }
+            return true;
+        }
+
+        private static Ring register() {
+            Ring ring = new Ring(Thread.currentThread(), RING_CAPACITY);
+            RINGS.add(ring);
+            startDrainer();
+            return ring;
+        }
+
+        private static synchronized void startDrainer() {
+            if (drainer == null) {
+                Thread thread = new Thread(LifecycleTrace::drainLoop, "lifecycle-trace-drainer");
+                thread.setDaemon(true);
+                thread.start();
+                drainer = thread;
+            }
+        }
+
+        private static void drainLoop() {
+            while (!Thread.currentThread().isInterrupted()) {
+                RecordSink sink = LOGGER.isInfoEnabled() ? LifecycleTrace::log : LifecycleTrace::discard;
+                int drained = 0;
+                for (Ring ring : RINGS) {
+                    drained += ring.drain(sink);
+                    if (ring.isRetired()) {
+                        RINGS.remove(ring);
+                    }
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+        }
+
+        private static void log(String thread, String source, String event, @Nullable Object detail) {
+            if (detail == null) {
+                LOGGER.info("{} {}.{}", thread, source, event);
+            } else {
+                LOGGER.info("{} {}.{} {}", thread, source, event, detail);
+            }
+        }
+
+        private static void discard(String thread, String source, String event, @Nullable Object detail) {
+        }
+    }
+
+    @FunctionalInterface
+    interface RecordSink {
+        void accept(String thread, String source, String event, @Nullable Object detail);
+    }
+
+    /**
+     * Single-producer single-consumer ring of trace records. The owning thread publishes a record by advancing
+     * {@code tail} after filling its slot, the drainer frees slots by advancing {@code head} after reading them.
+     */
+    static final class Ring {
+        private final WeakReference<Thread> owner;
+        private final String threadName;
+        private final int mask;
+        private final String[] sources;
+        private final String[] events;
+        private final Object[] details;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        Ring(Thread owner, int capacity) {
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+            }
+            this.owner = new WeakReference<>(owner);
+            this.threadName = owner.getName();
+            this.mask = capacity - 1;
+            this.sources = new String[capacity];
+            this.events = new String[capacity];
+            this.details = new Object[capacity];
+        }
+
+        /**
+         * Called by the owning thread only
+         * @return {@code false} if the ring is full and the record was dropped
+         */
+        boolean offer(String source, String event, @Nullable Object detail) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                dropped.lazySet(dropped.get() + 1);
+                return false;
+            }
+            int slot = (int) t & mask;
+            sources[slot] = source;
+            events[slot] = event;
+            details[slot] = detail;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        /**
+         * Called by the draining thread only
+         * @return number of records passed to {@code sink}
+         */
+        int drain(RecordSink sink) {
+            long h = head.get();
+            long t = tail.get();
+            for (long i = h; i < t; i++) {
+                int slot = (int) i & mask;
+                try {
+                    sink.accept(threadName, sources[slot], events[slot], details[slot]);
+                } catch (RuntimeException ex) {
+                    // a failing appender must not stop draining
+                }
+                details[slot] = null;
+            }
+            head.lazySet(t);
+            return (int) (t - h);
+        }
+
+        long published() {
+            return tail.get();
+        }
+
+        long consumed() {
+            return head.get();
+        }
+
+        long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Owning thread ended and everything it traced was drained
+         */
+        boolean isRetired() {
+            Thread thread = owner.get();
+            return (thread == null || !thread.isAlive()) && head.get() == tail.get();
+        }
+    }
+}
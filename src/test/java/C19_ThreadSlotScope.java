@@ -0,0 +1,447 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.Scope;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.SimpleThreadScope;
+import org.springframework.lang.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class C19_ThreadSlotScope {
+    /**
+     * One instance per thread and bean, destruction callbacks run once the thread has ended
+     * @see org.springframework.beans.factory.support.AbstractBeanFactory#registerDisposableBeanIfNecessary
+     */
+    @Test
+    void perThread() throws InterruptedException {
+        ThreadSlotScope scope = new ThreadSlotScope(ThreadSlotScope.Mode.PER_THREAD);
+        scope.setReapIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        DefaultListableBeanFactory bf = scopedFactory(scope);
+
+        Worker main = bf.getBean(Worker.class);
+        assertThat(bf.getBean(Worker.class)).isSameAs(main);
+
+        AtomicReference<Worker> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> other.set(bf.getBean(Worker.class)));
+        thread.start();
+        thread.join();
+
+        assertThat(other.get()).isNotNull().isNotSameAs(main);
+        assertThat(scope.reap()).isEqualTo(1);
+        assertThat(other.get().isDestroyed()).isTrue();
+        assertThat(main.isDestroyed()).isFalse();
+
+        scope.destroy();
+        assertThat(main.isDestroyed()).isTrue();
+    }
+
+    /**
+     * Striped instances are shared by the threads mapped to the same stripe, a single stripe shares with everyone
+     */
+    @Test
+    void striped() throws InterruptedException {
+        ThreadSlotScope scope = new ThreadSlotScope(ThreadSlotScope.Mode.STRIPED, 1);
+        DefaultListableBeanFactory bf = scopedFactory(scope);
+
+        Worker main = bf.getBean(Worker.class);
+        AtomicReference<Worker> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> other.set(bf.getBean(Worker.class)));
+        thread.start();
+        thread.join();
+
+        assertThat(other.get()).isSameAs(main);
+        assertThat(scope.reap()).isZero();
+        scope.destroy();
+        assertThat(main.isDestroyed()).isTrue();
+    }
+
+    /**
+     * Platform threads get their own slots in {@code AUTO} mode, removing a bean forgets it and its callback
+     */
+    @Test
+    void autoAndRemove() {
+        ThreadSlotScope scope = new ThreadSlotScope(ThreadSlotScope.Mode.AUTO);
+        DefaultListableBeanFactory bf = scopedFactory(scope);
+        assertThat(ThreadSlotScope.isVirtual(Thread.currentThread())).isFalse();
+
+        Worker worker = bf.getBean(Worker.class);
+        assertThat(scope.remove("worker")).isSameAs(worker);
+        assertThat(bf.getBean(Worker.class)).isNotSameAs(worker);
+        assertThat(scope.remove("unknown")).isNull();
+
+        scope.destroy();
+        assertThat(worker.isDestroyed()).isFalse();
+    }
+
+    /**
+     * {@code getBean} of a prototype, a {@link SimpleThreadScope} bean and a thread slot bean, on 1 and 8 threads.
+     * Run with {@code gradle benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    void scopeBenchmark() throws InterruptedException {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+        ThreadSlotScope slots = new ThreadSlotScope(ThreadSlotScope.Mode.PER_THREAD);
+        bf.registerScope("simpleThread", new SimpleThreadScope());
+        bf.registerScope("threadSlot", slots);
+        for (String scope : new String[] { BeanDefinition.SCOPE_PROTOTYPE, "simpleThread", "threadSlot" }) {
+            RootBeanDefinition bd = new RootBeanDefinition(C01_LargeContextGenerator.Leaf0.class);
+            bd.setScope(scope);
+            bf.registerBeanDefinition(scope, bd);
+        }
+        bf.freezeConfiguration();
+
+        for (int threads : new int[] { 1, 8 }) {
+            for (String scope : new String[] { BeanDefinition.SCOPE_PROTOTYPE, "simpleThread", "threadSlot" }) {
+                long[] nanos = new long[threads];
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    int index = t;
+                    workers[t] = new Thread(() -> nanos[index] = C01_LargeContextGenerator.Bench.measure(1_000_000,
+                            i -> bf.getBean(scope)));
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                System.out.printf("%d thread(s): %s getBean %,d ns/op%n", threads, scope,
+                        Arrays.stream(nanos).sum() / threads);
+            }
+        }
+        slots.destroy();
+    }
+
+    private static DefaultListableBeanFactory scopedFactory(ThreadSlotScope scope) {
+        DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+        bf.registerScope("threadSlot", scope);
+        RootBeanDefinition bd = new RootBeanDefinition(Worker.class);
+        bd.setScope("threadSlot");
+        bf.registerBeanDefinition("worker", bd);
+        return bf;
+    }
+
+    /**
+     * Scope keeping one instance per thread, or per stripe of threads, in arrays indexed by a per-bean id instead of
+     * the {@code ThreadLocal<Map>} of {@link SimpleThreadScope}.
+     * <p>Bean names get an id the first time the scope sees them. In {@link Mode#PER_THREAD} each thread has its own
+     * slot arrays, read and written without locks. {@link Mode#STRIPED} shares a bounded set of locked slot arrays
+     * between threads hashed by thread id, for virtual threads which come and go too often for per-thread instances.
+     * Stripes are guarded by a {@link ReentrantLock} rather than a monitor, a virtual thread creating a bean under it
+     * does not pin its carrier.
+     * The carrier a virtual thread runs on is not visible outside the JDK, stripes stand in for per-carrier sharing.
+     * {@link Mode#AUTO} stripes virtual threads and gives platform threads their own slots.
+     * <p>A daemon reaper, started with the first per-thread slots, drops the slots of threads that have ended and runs
+     * their destruction callbacks. {@link #destroy()} runs the remaining ones, for threads still alive as well as
+     * stripes.
+     */
+    static class ThreadSlotScope implements Scope {
+        @Nullable
+        private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+        enum Mode {
+            PER_THREAD,
+            STRIPED,
+            AUTO
+        }
+
+        private final Mode mode;
+        private final Map<String, Integer> beanIds = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final ThreadLocal<Slots> threadSlots = ThreadLocal.withInitial(this::newThreadSlots);
+        private final Queue<Slots> liveThreadSlots = new ConcurrentLinkedQueue<>();
+        private final Slots[] stripes;
+        private final int stripeMask;
+        @Nullable
+        private volatile Thread reaper;
+        private volatile long reapIntervalMillis = 1_000;
+
+        ThreadSlotScope(Mode mode) {
+            this(mode, Runtime.getRuntime().availableProcessors() * 2);
+        }
+
+        /**
+         * @param stripes number of stripes for striped threads, rounded up to a power of two
+         */
+        ThreadSlotScope(Mode mode, int stripes) {
+            this.mode = mode;
+            int count = Integer.highestOneBit(Math.max(1, stripes) * 2 - 1);
+            this.stripes = new Slots[count];
+            for (int i = 0; i < count; i++) {
+                this.stripes[i] = new Slots(null);
+            }
+            this.stripeMask = count - 1;
+        }
+
+        void setReapIntervalMillis(long reapIntervalMillis) {
+            this.reapIntervalMillis = reapIntervalMillis;
+        }
+
+        @Override
+        public Object get(String name, ObjectFactory<?> objectFactory) {
+            int id = beanId(name);
+            Thread thread = Thread.currentThread();
+            if (!striped(thread)) {
+                Slots slots = threadSlots.get();
+                Object bean = slots.get(id);
+                if (bean == null) {
+                    bean = objectFactory.getObject();
+                    slots.put(id, bean);
+                }
+                return bean;
+            }
+            Slots stripe = stripe(thread);
+            stripe.lock.lock();
+            try {
+                Object bean = stripe.get(id);
+                if (bean == null) {
+                    bean = objectFactory.getObject();
+                    stripe.put(id, bean);
+                }
+                return bean;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object remove(String name) {
+            Integer id = beanIds.get(name);
+            if (id == null) {
+                return null;
+            }
+            Thread thread = Thread.currentThread();
+            Slots slots = striped(thread) ? stripe(thread) : threadSlots.get();
+            slots.lock.lock();
+            try {
+                return slots.remove(id);
+            } finally {
+                slots.lock.unlock();
+            }
+        }
+
+        @Override
+        public void registerDestructionCallback(String name, Runnable callback) {
+            int id = beanId(name);
+            Thread thread = Thread.currentThread();
+            Slots slots = striped(thread) ? stripe(thread) : threadSlots.get();
+            slots.lock.lock();
+            try {
+                slots.setCallback(id, callback);
+            } finally {
+                slots.lock.unlock();
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object resolveContextualObject(String key) {
+            return null;
+        }
+
+        @Override
+        public String getConversationId() {
+            return Thread.currentThread().getName();
+        }
+
+        /**
+         * Runs the destruction callbacks of ended threads
+         * @return number of threads reaped
+         */
+        int reap() {
+            int reaped = 0;
+            for (Slots slots : liveThreadSlots) {
+                Thread owner = slots.owner.get();
+                if (owner == null || !owner.isAlive()) {
+                    liveThreadSlots.remove(slots);
+                    slots.destroy();
+                    reaped++;
+                }
+            }
+            return reaped;
+        }
+
+        /**
+         * Runs every remaining destruction callback and stops the reaper. Beans of threads still alive are
+         * destroyed under them, call this on shutdown.
+         */
+        void destroy() {
+            Thread reaper = this.reaper;
+            if (reaper != null) {
+                reaper.interrupt();
+            }
+            Slots slots;
+            while ((slots = liveThreadSlots.poll()) != null) {
+                slots.destroy();
+            }
+            for (Slots stripe : stripes) {
+                stripe.destroy();
+            }
+        }
+
+        private int beanId(String name) {
+            Integer id = beanIds.get(name);
+            return id != null ? id : beanIds.computeIfAbsent(name, key -> nextId.getAndIncrement());
+        }
+
+        private boolean striped(Thread thread) {
+            return mode == Mode.STRIPED || (mode == Mode.AUTO && isVirtual(thread));
+        }
+
+        private Slots stripe(Thread thread) {
+            long id = thread.getId();
+            int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return stripes[(hash >>> 16) & stripeMask];
+        }
+
+        private Slots newThreadSlots() {
+            Slots slots = new Slots(Thread.currentThread());
+            liveThreadSlots.add(slots);
+            if (reaper == null) {
+                // ended threads leave their slots behind with or without destruction callbacks
+                startReaper();
+            }
+            return slots;
+        }
+
+        private synchronized void startReaper() {
+            if (reaper == null) {
+                Thread thread = new Thread(() -> {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(reapIntervalMillis);
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                        reap();
+                    }
+                }, "thread-slot-scope-reaper");
+                thread.setDaemon(true);
+                thread.start();
+                reaper = thread;
+            }
+        }
+
+        /**
+         * {@code Thread.isVirtual()} on runtimes that have virtual threads, {@code false} elsewhere
+         */
+        static boolean isVirtual(Thread thread) {
+            if (IS_VIRTUAL == null) {
+                return false;
+            }
+            try {
+                return (boolean) IS_VIRTUAL.invokeExact(thread);
+            } catch (Throwable ex) {
+                return false;
+            }
+        }
+
+        @Nullable
+        private static MethodHandle isVirtualHandle() {
+            try {
+                return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                        MethodType.methodType(boolean.class));
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Instances and destruction callbacks indexed by bean id, for one thread or one stripe
+     */
+    private static final class Slots {
+        @Nullable
+        final WeakReference<Thread> owner;
+        final ReentrantLock lock = new ReentrantLock();
+        private Object[] instances = new Object[8];
+        private Runnable[] callbacks = new Runnable[8];
+
+        Slots(@Nullable Thread owner) {
+            this.owner = owner != null ? new WeakReference<>(owner) : null;
+        }
+
+        @Nullable
+        Object get(int id) {
+            Object[] instances = this.instances;
+            return id < instances.length ? instances[id] : null;
+        }
+
+        void put(int id, Object bean) {
+            if (id >= instances.length) {
+                instances = Arrays.copyOf(instances, Math.max(id + 1, instances.length * 2));
+            }
+            instances[id] = bean;
+        }
+
+        @Nullable
+        Object remove(int id) {
+            Object bean = get(id);
+            if (bean != null) {
+                instances[id] = null;
+                if (id < callbacks.length) {
+                    callbacks[id] = null;
+                }
+            }
+            return bean;
+        }
+
+        void setCallback(int id, Runnable callback) {
+            if (id >= callbacks.length) {
+                callbacks = Arrays.copyOf(callbacks, Math.max(id + 1, callbacks.length * 2));
+            }
+            callbacks[id] = callback;
+        }
+
+        void destroy() {
+            lock.lock();
+            try {
+                for (int id = 0; id < callbacks.length; id++) {
+                    Runnable callback = callbacks[id];
+                    if (callback != null) {
+                        callbacks[id] = null;
+                        try {
+                            callback.run();
+                        } catch (RuntimeException ex) {
+                            // same as DisposableBeanAdapter, one failing bean must not keep the others alive
+                        }
+                    }
+                }
+                Arrays.fill(instances, null);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static class Worker implements DisposableBean {
+        private volatile boolean destroyed;
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+}